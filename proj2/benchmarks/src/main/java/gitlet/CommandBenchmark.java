@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Times each Gitlet command on a SyntheticRepository. Commands that
+ *  change the repository are given fresh work, or have their effect
+ *  undone, before each invocation, outside the measured time. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+
+    /** A file changed since it was last added. */
+    @State(Scope.Thread)
+    public static class Edited {
+        /** The number of the changed file. */
+        int file;
+        /** Number of edits made so far. */
+        private int _edits;
+
+        /** Changes a file of REPO. */
+        @Setup(Level.Invocation)
+        public void edit(SyntheticRepository repo) {
+            _edits += 1;
+            file = _edits % (repo.filesPerCommit * 4);
+            Utils.writeContents(new File(repo.path(file)),
+                ("edit " + _edits + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** A change staged for commit. */
+    @State(Scope.Thread)
+    public static class Staged {
+        /** Stages a change to a file of REPO. */
+        @Setup(Level.Invocation)
+        public void stage(SyntheticRepository repo, Edited edited) {
+            repo.run("add", repo.path(edited.file));
+        }
+    }
+
+    /** Master returned to its original head, and its branches unmerged. */
+    @State(Scope.Thread)
+    public static class Unmerged {
+        /** Resets master in REPO. */
+        @Setup(Level.Invocation)
+        public void reset(SyntheticRepository repo) {
+            repo.run("reset", repo.head());
+        }
+    }
+
+    /** Which of two alternatives an invocation uses. */
+    @State(Scope.Thread)
+    public static class Toggle {
+        /** True on every other invocation. */
+        boolean on;
+
+        /** Flips ON. */
+        @Setup(Level.Invocation)
+        public void flip() {
+            on = !on;
+        }
+    }
+
+    @Benchmark
+    public void add(SyntheticRepository repo, Edited edited) {
+        repo.run("add", repo.path(edited.file));
+    }
+
+    @Benchmark
+    public void commit(SyntheticRepository repo, Staged staged) {
+        repo.run("commit", "Benchmark commit");
+    }
+
+    @Benchmark
+    public void status(SyntheticRepository repo) {
+        repo.run("status");
+    }
+
+    @Benchmark
+    public void log(SyntheticRepository repo) {
+        repo.run("log");
+    }
+
+    @Benchmark
+    public void globalLog(SyntheticRepository repo) {
+        repo.run("global-log");
+    }
+
+    @Benchmark
+    public void find(SyntheticRepository repo) {
+        repo.run("find", "commit " + (repo.commitCount / 2));
+    }
+
+    @Benchmark
+    public void checkout(SyntheticRepository repo, Toggle toggle) {
+        repo.run("checkout", toggle.on ? "branch1" : "master");
+    }
+
+    @Benchmark
+    public void reset(SyntheticRepository repo, Toggle toggle) {
+        repo.run("reset", toggle.on ? repo.older() : repo.head());
+    }
+
+    @Benchmark
+    public void merge(SyntheticRepository repo, Unmerged unmerged) {
+        repo.run("merge", "branch1");
+    }
+}
@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Compares the cost of storing commits in the binary form of
+ *  Commit.encode with Java serialization, which earlier versions used.
+ *  The average size of each form is printed when the commits are made.
+ *  Needs no repository.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+    /** Random commits in both stored forms. */
+    @State(Scope.Benchmark)
+    public static class Commits {
+        /** Number of commits made; a power of two. */
+        static final int COUNT = 1024;
+
+        /** The commits. */
+        Commit[] commits = new Commit[COUNT];
+        /** Commit K in the form written by Commit.encode. */
+        byte[][] encoded = new byte[COUNT][];
+        /** Commit K in the form written by Gitlet.serialize. */
+        byte[][] serialized = new byte[COUNT][];
+
+        /** Makes the commits and reports the size of each form. */
+        @Setup(Level.Trial)
+        public void create() {
+            Random random = new Random(61);
+            long encodedBytes = 0;
+            long serializedBytes = 0;
+            for (int k = 0; k < COUNT; k += 1) {
+                commits[k] = new Commit(randomID(random), randomID(random), null,
+                    randomID(random), "2017-07-12 10:00:00",
+                    "Commit number " + k + " of the benchmark");
+                encoded[k] = commits[k].encode();
+                serialized[k] = Gitlet.serialize(commits[k]);
+                encodedBytes += encoded[k].length;
+                serializedBytes += serialized[k].length;
+            }
+            System.out.printf("%nbytes/op: binary %d, serialization %d%n",
+                encodedBytes / COUNT, serializedBytes / COUNT);
+        }
+    }
+
+    /** Which commit each invocation uses, a different one each time. An
+     *  invocation-level Setup would cost more than the work measured. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        /** Index of the last commit used. */
+        private int _k;
+
+        /** Returns the index of the next commit. */
+        int next() {
+            _k = (_k + 1) & (Commits.COUNT - 1);
+            return _k;
+        }
+    }
+
+    @Benchmark
+    public byte[] encode(Commits commits, Cursor cursor) {
+        return commits.commits[cursor.next()].encode();
+    }
+
+    @Benchmark
+    public Commit decode(Commits commits, Cursor cursor) {
+        int k = cursor.next();
+        return Commit.decode(commits.commits[k].getID(), commits.encoded[k]);
+    }
+
+    @Benchmark
+    public byte[] serialize(Commits commits, Cursor cursor) {
+        return Gitlet.serialize(commits.commits[cursor.next()]);
+    }
+
+    @Benchmark
+    public Object deserialize(Commits commits, Cursor cursor) {
+        return Gitlet.deserialize(commits.serialized[cursor.next()]);
+    }
+
+    /** Returns a random 40-digit hexadecimal ID drawn from RANDOM. */
+    private static String randomID(Random random) {
+        byte[] raw = new byte[IdTable.RAW_ID_LENGTH];
+        random.nextBytes(raw);
+        return IdTable.toHex(raw);
+    }
+}
@@ -0,0 +1,193 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** A repository of the shape given by the benchmark parameters, built in
+ *  the working directory, on which the benchmarks run Gitlet commands in
+ *  process, as the daemon does.
+ *
+ *  The master branch has COMMITCOUNT commits after the initial one, of
+ *  which each rewrites one line in each of FILESPERCOMMIT of the
+ *  4 * FILESPERCOMMIT files, each of about FILESIZE bytes, spread over
+ *  eight directories. BRANCHCOUNT further branches, branch1 onwards, leave
+ *  master at evenly spaced commits and each add one file of their own in
+ *  one commit.
+ *
+ *  Since Gitlet always works in the current directory, the benchmarks must
+ *  be run from an empty directory; a directory holding MARKER, left by an
+ *  earlier run, is emptied first.
+ */
+@State(Scope.Benchmark)
+public class SyntheticRepository {
+
+    /** Number of files changed by each commit. */
+    @Param({ "10" })
+    public int filesPerCommit;
+    /** Approximate size of each file, in bytes. */
+    @Param({ "1024" })
+    public int fileSize;
+    /** Number of commits on master. */
+    @Param({ "100", "1000" })
+    public int commitCount;
+    /** Number of branches besides master. */
+    @Param({ "1", "10" })
+    public int branchCount;
+
+    /** Marks a directory used by the benchmarks. */
+    static final String MARKER = ".gitlet-benchmark";
+    /** Length of each line of a file, including its newline. */
+    private static final int LINE = 64;
+
+    /** Creates the repository. */
+    @Setup(Level.Trial)
+    public void create() {
+        File root = new File("").getAbsoluteFile();
+        String[] existing = root.list();
+        if (existing == null || existing.length > 0 && !new File(MARKER).isFile()) {
+            throw new IllegalStateException("Run the benchmarks from an empty directory, "
+                + "which they fill with a repository; " + root + " is not empty.");
+        }
+        for (String name : existing) {
+            delete(new File(name));
+        }
+        Utils.writeContents(new File(MARKER), new byte[0]);
+        _stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        _random = new Random(61);
+        _lines = new ArrayList<>();
+        for (int k = 0; k < filesPerCommit * 4; k += 1) {
+            _lines.add(randomLines(Math.max(1, fileSize / LINE)));
+        }
+        run("init");
+        for (int k = 0; k < _lines.size(); k += 1) {
+            write(k);
+        }
+        run(paths(0, _lines.size(), "add"));
+        run("commit", "Add files");
+        int branch = 1;
+        for (int c = 1; c <= commitCount; c += 1) {
+            int first = (c * filesPerCommit) % _lines.size();
+            for (int k = first; k < first + filesPerCommit; k += 1) {
+                List<String> lines = _lines.get(k);
+                lines.set(c % lines.size(), String.format("commit %d of %d", c, k));
+                write(k);
+            }
+            run(paths(first, first + filesPerCommit, "add"));
+            run("commit", "commit " + c);
+            while (branch <= branchCount && c * (branchCount + 1) >= branch * commitCount) {
+                run("branch", "branch" + branch);
+                branch += 1;
+            }
+        }
+        _head = Gitlet.getBranchHeadCommitID("master");
+        _older = Gitlet.getCommit(_head).getParentID();
+        for (int b = 1; b <= branchCount; b += 1) {
+            run("checkout", "branch" + b);
+            Utils.writeContents(new File("branch" + b + ".txt"),
+                String.join("\n", randomLines(4)).getBytes(StandardCharsets.UTF_8));
+            run("add", "branch" + b + ".txt");
+            run("commit", "Work on branch" + b);
+        }
+        run("checkout", "master");
+    }
+
+    /** Restores the standard output and the working directory. */
+    @TearDown(Level.Trial)
+    public void destroy() {
+        System.setOut(_stdout);
+        for (String name : new File("").getAbsoluteFile().list()) {
+            if (!name.equals(MARKER)) {
+                delete(new File(name));
+            }
+        }
+    }
+
+    /** Runs the Gitlet command ARGS. */
+    void run(String... args) {
+        Main.run(args);
+    }
+
+    /** Returns the ID of the head of master as created. */
+    String head() {
+        return _head;
+    }
+
+    /** Returns the ID of the parent of head(). */
+    String older() {
+        return _older;
+    }
+
+    /** Returns the path of file K. */
+    String path(int k) {
+        return "dir" + (k % 8) + "/file" + k + ".txt";
+    }
+
+    /** Writes the current version of file K. */
+    void write(int k) {
+        File file = new File(path(k));
+        file.getParentFile().mkdirs();
+        List<String> lines = _lines.get(k);
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        Utils.writeContents(file, text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the arguments of COMMAND applied to files [FROM, TO). */
+    private String[] paths(int from, int to, String command) {
+        String[] result = new String[to - from + 1];
+        result[0] = command;
+        for (int k = from; k < to; k += 1) {
+            result[k - from + 1] = path(k);
+        }
+        return result;
+    }
+
+    /** Returns COUNT random lines of LINE - 1 characters. */
+    private List<String> randomLines(int count) {
+        List<String> result = new ArrayList<>();
+        for (int k = 0; k < count; k += 1) {
+            char[] line = new char[LINE - 1];
+            for (int i = 0; i < line.length; i += 1) {
+                line[i] = (char) ('a' + _random.nextInt(26));
+            }
+            result.add(new String(line));
+        }
+        return result;
+    }
+
+    /** Deletes FILE and, if it is a directory, everything in it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** The lines of each file, by number. */
+    private List<List<String>> _lines;
+    /** Source of the files' contents. */
+    private Random _random;
+    /** The head of master, and its parent, once created. */
+    private String _head, _older;
+    /** The standard output replaced while the benchmarks run. */
+    private PrintStream _stdout;
+}
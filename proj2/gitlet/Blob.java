@@ -4,22 +4,47 @@ import java.io.File;
 
 /**
  * A representation of a file and its contents at a particular moment in time.
+ * The contents themselves live in the object store under the blob's ID.
  * Created by keeley on 7/14/2017.
  */
 public class Blob extends File {
+    /** Fixed so that blobs written by earlier versions still deserialize. */
+    private static final long serialVersionUID = -4876017983484301233L;
     /** The name of the file. */
     private String _fileName;
     /** The unique SHA-1 ID of the file at the point it was added. */
     private String _id;
-    /** The contents of the file at the point it was added. */
+    /** The contents of the file at the point it was added, for blobs staged
+     *  by versions of Gitlet that kept contents in the staging area. Null
+     *  for blobs whose contents are in the object store. */
     private byte[] _contents;
 
-    /** Constructs a new Blob representing the file at pathName. */
+    /** Constructs a new Blob representing the file at pathName. The file is
+     *  hashed as it is streamed from disk, so it is never held in memory. */
     public Blob(String pathname) {
+        this(pathname, Utils.sha1(new File(pathname)));
+    }
+
+    /** Constructs a Blob representing the file at PATHNAME, whose contents
+     *  have the SHA-1 ID ID. */
+    Blob(String pathname, String id) {
         super(pathname);
         _fileName = pathname;
-        _contents = Utils.readContents(new File(_fileName));
-        _id = Utils.sha1(_contents);
+        _id = id;
+    }
+
+    /** Returns a Blob representing the file at PATHNAME after streaming its
+     *  contents into the object store. */
+    static Blob store(String pathname) {
+        return new Blob(pathname, ObjectStore.write(ObjectStore.BLOB, new File(pathname)));
+    }
+
+    /** Ensures that this blob's contents are in the object store. Only
+     *  blobs staged by earlier versions of Gitlet can be missing. */
+    void save() {
+        if (_contents != null) {
+            ObjectStore.write(ObjectStore.BLOB, _id, _contents);
+        }
     }
 
 
@@ -41,6 +66,6 @@ public class Blob extends File {
      * Return this blob's contents.
      */
     public byte[] getContents() {
-        return _contents;
+        return _contents != null ? _contents : Gitlet.getBlobContents(_id);
     }
 }
@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** Bloom filters of the paths changed by each commit in the commit graph,
+ *  so that a log limited to one path need not compare the snapshots of
+ *  commits that certainly left it alone.
+ *
+ *  For the commit at each graph position, .gitlet/commit-graph.bloom holds
+ *  a filter of the paths of the files whose blob IDs differ from those of
+ *  its first parent (or of an empty snapshot, for an initial commit),
+ *  together with the directories containing them, and
+ *  .gitlet/commit-graph.bidx holds as an int the offset at which that
+ *  filter ends. A filter has BITS_PER_PATH bits for each path, rounded up
+ *  to whole bytes, of which HASHES are set for each path by double hashing
+ *  with Murmur3. A commit that changes nothing has an empty filter, which
+ *  admits no path; one that changes more than MAX_PATHS paths has a single
+ *  byte with every bit set, which admits all of them.
+ *
+ *  Filters are added for new commits as they are made, and for the whole
+ *  graph whenever it has been rebuilt.
+ */
+class ChangedPaths {
+
+    /** The filters. */
+    static final File FILTERS = new File(".gitlet/commit-graph.bloom");
+    /** The end of each filter in FILTERS. */
+    static final File ENDS = new File(".gitlet/commit-graph.bidx");
+
+    /** Bits of a filter for each path it holds. */
+    private static final int BITS_PER_PATH = 10;
+    /** Number of bits set for each path. */
+    private static final int HASHES = 7;
+    /** Most paths held in a filter; a commit changing more admits all. */
+    private static final int MAX_PATHS = 512;
+    /** Seeds of the two hashes of a path. */
+    private static final int SEED1 = 0x293ae76f, SEED2 = 0x7e646e2c;
+
+    /** The mapped contents of FILTERS, or null if not loaded. */
+    private static ByteBuffer _filters;
+    /** The mapped contents of ENDS. */
+    private static IntBuffer _ends;
+    /** The Utils.stamp of FILTERS and ENDS as mapped. */
+    private static String _stamp;
+
+    /** Returns false if the commit at graph position POS certainly leaves
+     *  the file or directory PATH as its first parent had it, and true if
+     *  it may have changed it. */
+    static boolean mayChange(int pos, String path) {
+        load();
+        if (pos >= _ends.limit()) {
+            return true;
+        }
+        int start = pos == 0 ? 0 : _ends.get(pos - 1);
+        int bits = (_ends.get(pos) - start) * 8;
+        if (bits == 0) {
+            return false;
+        }
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int h1 = murmur3(SEED1, key);
+        int h2 = murmur3(SEED2, key);
+        for (int k = 0; k < HASHES; k += 1) {
+            int bit = Integer.remainderUnsigned(h1 + k * h2, bits);
+            if ((_filters.get(start + bit / 8) & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Appends filters for the commits in the graph that have none yet.
+     *  Does nothing under a shared lock, leaving those commits to be
+     *  checked directly. */
+    static void update() {
+        load();
+        int covered = _ends.limit();
+        int count = CommitGraph.count();
+        if (covered >= count || RepoLock.isShared()) {
+            return;
+        }
+        int start = covered == 0 ? 0 : _ends.get(covered - 1);
+        int end = start;
+        ByteArrayOutputStream filters = new ByteArrayOutputStream();
+        ByteArrayOutputStream ends = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(ends);
+        try {
+            for (int pos = covered; pos < count; pos += 1) {
+                byte[] filter = filter(changedPaths(pos));
+                filters.write(filter);
+                end += filter.length;
+                out.writeInt(end);
+            }
+            write(FILTERS, start, filters.toByteArray());
+            write(ENDS, covered * 4L, ends.toByteArray());
+        } catch (IOException excp) {
+            throw new GitletException("Could not update changed-path filters.");
+        }
+        _filters = null;
+    }
+
+    /** Writes BYTES to FILE at offset START, dropping anything after them. */
+    private static void write(File file, long start, byte[] bytes) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(start);
+            out.write(bytes);
+            out.setLength(start + bytes.length);
+        }
+    }
+
+    /** Discards all filters, as when the graph is rebuilt. */
+    static void clear() {
+        FILTERS.delete();
+        ENDS.delete();
+        _filters = null;
+    }
+
+    /** Forgets the mapped filters if another process has changed them
+     *  since. */
+    static void refresh() {
+        if (_filters != null && !Utils.stamp(FILTERS, ENDS).equals(_stamp)) {
+            _filters = null;
+        }
+    }
+
+    /** Maps FILTERS and ENDS, treating a missing file as covering no
+     *  commits, and ENDS as covering no more than the graph. */
+    private static void load() {
+        if (_filters != null) {
+            return;
+        }
+        try {
+            _stamp = Utils.stamp(FILTERS, ENDS);
+            if (!FILTERS.isFile() || !ENDS.isFile()) {
+                _filters = ByteBuffer.allocate(0);
+                _ends = IntBuffer.allocate(0);
+                return;
+            }
+            _filters = map(FILTERS);
+            _ends = map(ENDS).asIntBuffer();
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt changed-path filters.");
+        }
+        int covered = Math.min(_ends.limit(), CommitGraph.count());
+        while (covered > 0 && _ends.get(covered - 1) > _filters.limit()) {
+            covered -= 1;
+        }
+        _ends.limit(covered);
+    }
+
+    /** Returns the contents of FILE, mapped read-only. */
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Returns the paths of the files changed by the commit at graph
+     *  position POS from its first parent, and of the directories holding
+     *  them. */
+    private static Set<String> changedPaths(int pos) {
+        Commit c = Gitlet.getCommit(CommitGraph.id(pos));
+        int parent = CommitGraph.parent(pos);
+        String before = parent == CommitGraph.NONE ? null
+            : Gitlet.getCommit(CommitGraph.id(parent)).getTree();
+        Set<String> result = new TreeSet<>();
+        for (String path : Tree.changes(before, c.getTree())) {
+            result.add(path);
+            for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+                result.add(path.substring(0, slash));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the filter of PATHS. */
+    private static byte[] filter(Set<String> paths) {
+        if (paths.size() > MAX_PATHS) {
+            return new byte[] { (byte) 0xff };
+        }
+        byte[] result = new byte[(paths.size() * BITS_PER_PATH + 7) / 8];
+        int bits = result.length * 8;
+        for (String path : paths) {
+            byte[] key = path.getBytes(StandardCharsets.UTF_8);
+            int h1 = murmur3(SEED1, key);
+            int h2 = murmur3(SEED2, key);
+            for (int k = 0; k < HASHES; k += 1) {
+                int bit = Integer.remainderUnsigned(h1 + k * h2, bits);
+                result[bit / 8] |= 1 << (bit % 8);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the 32-bit Murmur3 hash of DATA with SEED. */
+    private static int murmur3(int seed, byte[] data) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int h = seed;
+        int blocks = data.length / 4;
+        for (int k = 0; k < blocks; k += 1) {
+            int i = k * 4;
+            int b = (data[i] & 0xff) | (data[i + 1] & 0xff) << 8
+                | (data[i + 2] & 0xff) << 16 | (data[i + 3] & 0xff) << 24;
+            b *= c1;
+            b = Integer.rotateLeft(b, 15);
+            b *= c2;
+            h ^= b;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+        }
+        int rem = data.length & 3;
+        int i = blocks * 4;
+        int tail = 0;
+        if (rem >= 3) {
+            tail ^= (data[i + 2] & 0xff) << 16;
+        }
+        if (rem >= 2) {
+            tail ^= (data[i + 1] & 0xff) << 8;
+        }
+        if (rem >= 1) {
+            tail ^= data[i] & 0xff;
+            tail *= c1;
+            tail = Integer.rotateLeft(tail, 15);
+            tail *= c2;
+            h ^= tail;
+        }
+        h ^= data.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -2,14 +2,32 @@ package gitlet;
 
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Created by Abrams on 7/12/17.
+ *
+ * Commits are stored in the binary form written by encode: the magic
+ * "GCMT", a version byte and a byte of flags saying which of the optional
+ * fields are present, then the raw 20-byte ID, the raw IDs of the parent,
+ * the second parent of a merge and the root tree if present, the timestamp
+ * and the log message, each an int length followed by that many bytes of
+ * UTF-8, the snapshot of a commit made before snapshots were kept as trees
+ * if present, as an int count of entries each a length-prefixed file name
+ * and a raw blob ID, and finally the CRC-32 of everything before it.
+ * Commits serialized as Java objects by earlier versions are still read.
  */
 public class Commit implements Serializable {
+    /** Fixed so that commits written by earlier versions still deserialize. */
+    private static final long serialVersionUID = -7882074208566838636L;
     /** The unique SHA-1 label of this Commit. */
     private String _ID;
     /** The timestamp of this commit. */
@@ -18,29 +36,43 @@ public class Commit implements Serializable {
     private String _log;
     /** The unique SHA-1 label of this Commit's parent. */
     private String _parentID;
-    /** A list of currently tracked files. Keys are file names, values are SHA-1*/
+    /** The unique SHA-1 label of the commit merged into this one, or null
+     *  if this commit is not a merge. */
+    private String _secondParentID;
+    /** A list of currently tracked files. Keys are file names, values are SHA-1.
+     *  Only present in commits made before snapshots were kept as trees. */
     private Map<String, String> _snapshot;
+    /** The SHA-1 ID of the tree of the root directory of this commit's snapshot,
+     *  or null in commits made before snapshots were kept as trees. */
+    private String _tree;
 
-    /** Initializes a new Commit. */
-    public Commit(String parentID, String msg) {
+    /** Format version of encoded commits. */
+    private static final int VERSION = 1;
+    /** The first bytes of an encoded commit. */
+    private static final int MAGIC = 0x47434d54;
+    /** The first bytes of a serialized Java object. */
+    private static final short SERIALIZED = (short) 0xaced;
+    /** Flags marking the optional fields present in an encoded commit. */
+    private static final int HAS_PARENT = 1, HAS_TREE = 2, HAS_SNAPSHOT = 4,
+        HAS_SECOND_PARENT = 8;
+
+    /** Initializes a new Commit whose snapshot is that of the commit PARENTID
+     *  with CHANGES applied. CHANGES maps file names to the SHA-1 IDs of their
+     *  new contents, or to null for files to remove. */
+    public Commit(String parentID, String msg, Map<String, ObjectId> changes) {
+        this(parentID, null, msg, changes);
+    }
+
+    /** Initializes a new Commit as above, merging the commit SECONDPARENTID
+     *  into PARENTID if it is not null. */
+    public Commit(String parentID, String secondParentID, String msg,
+                  Map<String, ObjectId> changes) {
         _parentID = parentID;
+        _secondParentID = secondParentID;
         _log = msg;
-        //need to copy unchanged tracked blob key-val pairs from parent, add files in staging area,
-        //remove files tagged for removeal.
-        _snapshot = Gitlet.getCommit(parentID).getSnapshot();
-        _time = ZonedDateTime.now().toString();
-        _time = _time.substring(0, 10) + " " + _time.substring(11, 19);
-        ArrayList identifyingObjects = new ArrayList();
-        identifyingObjects.add(_parentID);
-        identifyingObjects.add(_snapshot.toString());
-        identifyingObjects.add(_log);
-        identifyingObjects.add(_time);
-        /**
-         * They did say we might want to add an extra parameter to sha-1 keys to help
-         * us identify between different types of blob. Not sure how to implement that
-         * yet but figure it will come up later as we work through.
-         */
-        _ID = Utils.sha1(identifyingObjects);
+        _tree = Tree.update(Gitlet.getCommit(parentID).getTree(), changes);
+        _time = ZonedDateTime.now().format(CommitGraph.TIME_FORMAT);
+        _ID = Utils.sha1(identifyingObjects());
     }
 
     /**
@@ -51,49 +83,173 @@ public class Commit implements Serializable {
     public Commit(String msg) {
         _parentID = "0";
         _log = msg;
-        _snapshot = new HashMap<String, String>();
-        _time = ZonedDateTime.now().toString();
-        _time = _time.substring(0, 10) + " " + _time.substring(11, 19);
-        ArrayList identifyingObjects = new ArrayList();
-        identifyingObjects.add(_parentID);
-        identifyingObjects.add(_snapshot.toString());
-        identifyingObjects.add(_log);
-        identifyingObjects.add(_time);
-        /**
-         * They did say we might want to add an extra parameter to sha-1 keys to help
-         * us identify between different types of blob. Not sure how to implement that
-         * yet but figure it will come up later as we work through.
-         */
-        _ID = Utils.sha1(identifyingObjects);
+        _tree = Tree.write(new HashMap<String, ObjectId>());
+        _time = ZonedDateTime.now().format(CommitGraph.TIME_FORMAT);
+        _ID = Utils.sha1(identifyingObjects());
     }
 
+    /** A commit with the given ID, PARENTID, SECONDPARENTID, TREE, TIME and
+     *  LOG, as read from the object store. */
+    Commit(String id, String parentID, String secondParentID, String tree,
+           String time, String log) {
+        _ID = id;
+        _parentID = parentID;
+        _secondParentID = secondParentID;
+        _tree = tree;
+        _time = time;
+        _log = log;
+    }
+
+    /** Returns this commit in the binary form stored in the object store. */
+    byte[] encode() {
+        boolean hasParent = !_parentID.equals("0");
+        boolean hasSnapshot = _snapshot != null && _tree == null;
+        byte[] time = _time.getBytes(StandardCharsets.UTF_8);
+        byte[] log = _log.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> names = new ArrayList<>();
+        int length = 4 + 1 + 1 + IdTable.RAW_ID_LENGTH * (1 + (hasParent ? 1 : 0)
+            + (_secondParentID != null ? 1 : 0) + (_tree != null ? 1 : 0))
+            + 4 + time.length + 4 + log.length + 4;
+        if (hasSnapshot) {
+            length += 4;
+            for (String name : new TreeMap<>(_snapshot).keySet()) {
+                names.add(name.getBytes(StandardCharsets.UTF_8));
+                length += 4 + names.get(names.size() - 1).length + IdTable.RAW_ID_LENGTH;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        out.put((byte) ((hasParent ? HAS_PARENT : 0) | (_tree != null ? HAS_TREE : 0)
+                        | (hasSnapshot ? HAS_SNAPSHOT : 0)
+                        | (_secondParentID != null ? HAS_SECOND_PARENT : 0)));
+        out.put(IdTable.fromHex(_ID));
+        if (hasParent) {
+            out.put(IdTable.fromHex(_parentID));
+        }
+        if (_secondParentID != null) {
+            out.put(IdTable.fromHex(_secondParentID));
+        }
+        if (_tree != null) {
+            out.put(IdTable.fromHex(_tree));
+        }
+        out.putInt(time.length).put(time);
+        out.putInt(log.length).put(log);
+        if (hasSnapshot) {
+            out.putInt(names.size());
+            for (byte[] name : names) {
+                out.putInt(name.length).put(name);
+                out.put(IdTable.fromHex(_snapshot.get(new String(name, StandardCharsets.UTF_8))));
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        return out.array();
+    }
+
+    /** Returns the commit ID whose stored form is BODY, as written by encode
+     *  or, for commits made by earlier versions, by Java serialization. */
+    static Commit decode(String id, byte[] body) {
+        ByteBuffer in = ByteBuffer.wrap(body);
+        if (body.length >= 2 && in.getShort(0) == SERIALIZED) {
+            return (Commit) Gitlet.deserialize(body);
+        }
+        try {
+            if (in.getInt() != MAGIC || in.get() != VERSION) {
+                throw new GitletException("Unrecognized commit " + id + ".");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length - 4);
+            if (in.getInt(body.length - 4) != (int) crc.getValue()) {
+                throw new GitletException("Corrupt commit " + id + ".");
+            }
+            int flags = in.get();
+            String commitID = readID(in);
+            String parentID = (flags & HAS_PARENT) != 0 ? readID(in) : "0";
+            String secondParentID = (flags & HAS_SECOND_PARENT) != 0 ? readID(in) : null;
+            String tree = (flags & HAS_TREE) != 0 ? readID(in) : null;
+            String time = readString(in);
+            Commit result = new Commit(commitID, parentID, secondParentID, tree, time,
+                readString(in));
+            if ((flags & HAS_SNAPSHOT) != 0) {
+                result._snapshot = new HashMap<>();
+                for (int k = in.getInt(); k > 0; k -= 1) {
+                    result._snapshot.put(readString(in), readID(in));
+                }
+            }
+            return result;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException excp) {
+            throw new GitletException("Corrupt commit " + id + ".");
+        }
+    }
+
+    /** Reads a string, written as its length in UTF-8 followed by its
+     *  UTF-8 bytes, from IN. */
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Reads a raw ID from IN and returns it in hex. */
+    private static String readID(ByteBuffer in) {
+        byte[] raw = new byte[IdTable.RAW_ID_LENGTH];
+        in.get(raw);
+        return IdTable.toHex(raw);
+    }
+
+    /** Returns the values whose hash is this commit's ID. */
+    private List<Object> identifyingObjects() {
+        ArrayList<Object> result = new ArrayList<>();
+        result.add(_parentID);
+        if (_secondParentID != null) {
+            result.add(_secondParentID);
+        }
+        result.add(_tree);
+        result.add(_log);
+        result.add(_time);
+        return result;
+    }
 
     /**
      * Returns this commit's snapshot.
      */
-    public Map<String, String> getSnapshot() {
-        return new HashMap<String, String>(_snapshot);
+    public Map<String, ObjectId> getSnapshot() {
+        if (_tree == null) {
+            return legacySnapshot();
+        }
+        return Tree.flatten(_tree);
     }
 
-    /**
-     * Gives this commit's snapshot the key FILENAME and
-     * with value BLOBID.
-     */
-    public void addToSnapshot(String filename, String blobID) {
-        if (_snapshot.containsKey(filename)) {
-            _snapshot.replace(filename, blobID);
-        } else {
-            _snapshot.put(filename, blobID);
+    /** Returns the snapshot of a commit made before snapshots were kept as
+     *  trees. */
+    private Map<String, ObjectId> legacySnapshot() {
+        Map<String, ObjectId> result = new HashMap<>();
+        for (Map.Entry<String, String> entry : _snapshot.entrySet()) {
+            result.put(entry.getKey(), ObjectId.fromHex(entry.getValue()));
         }
+        return result;
     }
 
-    /**
-     * Removes given file from this commit's snapshot.
-     */
-    public void removeFromSnapshot(String filename) {
-        if (_snapshot.keySet().contains(filename)) {
-            _snapshot.remove(filename);
+    /** Returns the SHA-1 ID of the contents of FILENAME in this commit's
+     *  snapshot, or null if it does not track FILENAME. */
+    public ObjectId getFile(String fileName) {
+        if (_tree == null) {
+            String id = _snapshot.get(fileName);
+            return id == null ? null : ObjectId.fromHex(id);
+        }
+        return Tree.lookup(_tree, fileName);
+    }
+
+    /** Returns the SHA-1 ID of the root tree of this commit's snapshot,
+     *  first storing the trees of a snapshot made before snapshots were kept
+     *  as trees, or only building them in memory under a shared lock. */
+    public String getTree() {
+        if (_tree == null) {
+            return Tree.update(null, legacySnapshot());
         }
+        return _tree;
     }
 
     /**
@@ -120,5 +276,11 @@ public class Commit implements Serializable {
         return _parentID;
     }
 
+    /** Returns the unique SHA-1 ID of the commit merged into this one, or
+     *  null if this commit is not a merge. */
+    public String getSecondParentID() {
+        return _secondParentID;
+    }
+
 
 }
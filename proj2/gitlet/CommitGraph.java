@@ -0,0 +1,402 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** A compact, append-only summary of the history of a repository, so that
+ *  walking it never requires deserializing commits.
+ *
+ *  .gitlet/commit-graph starts with the magic "CGPH" and a version, then
+ *  holds one fixed-width row per commit, every commit after its parents:
+ *  the raw 20-byte ID, the row positions of its first and second parents
+ *  (-1 if absent), its generation number (1 for a root, otherwise one more
+ *  than the largest generation of its parents), its timestamp in seconds
+ *  and the offset of its log message in .gitlet/commit-graph.msg, which
+ *  holds each message as a length-prefixed UTF-8 string.
+ *
+ *  .gitlet/commit-graph.order lists the positions of the rows as ints in
+ *  chronological order: by timestamp, and by position among commits made
+ *  in the same second. A commit no older than the last one listed is simply
+ *  appended; anything else discards the file, which is rebuilt when next
+ *  needed (and at the latest by the next commit).
+ *
+ *  The three files are appended to one after another, so a command
+ *  interrupted while adding a commit may leave part of a row or message
+ *  at the end of any of them. Readers ignore such a partial row, and the
+ *  next add cuts each file back to its last complete row before appending.
+ */
+class CommitGraph {
+
+    /** The graph file. */
+    static final File GRAPH = new File(".gitlet/commit-graph");
+    /** The log messages of the commits in GRAPH. */
+    static final File MESSAGES = new File(".gitlet/commit-graph.msg");
+    /** The positions of the commits in GRAPH in chronological order. */
+    static final File ORDER = new File(".gitlet/commit-graph.order");
+
+    /** Position of "no commit". */
+    static final int NONE = -1;
+
+    /** Format version of GRAPH. */
+    private static final int VERSION = 1;
+    /** Length of the header of GRAPH. */
+    private static final int HEADER = 8;
+    /** Length of a row. */
+    private static final int ROW = IdTable.RAW_ID_LENGTH + 4 + 4 + 4 + 8 + 8;
+    /** Offsets of fields within a row. */
+    private static final int PARENT1 = IdTable.RAW_ID_LENGTH, PARENT2 = PARENT1 + 4,
+        GENERATION = PARENT2 + 4, TIME = GENERATION + 4, MESSAGE = TIME + 8;
+
+    /** Format of commit timestamps. */
+    static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /** The mapped rows of GRAPH, or null if not loaded. */
+    private static ByteBuffer _rows;
+    /** The mapped contents of MESSAGES. */
+    private static ByteBuffer _messages;
+    /** The contents of ORDER, or null if not loaded. */
+    private static IntBuffer _order;
+    /** Positions of the commits in GRAPH, keyed by ID; filled on demand. */
+    private static Map<String, Integer> _positions;
+    /** The Utils.stamp of GRAPH and MESSAGES as mapped. */
+    private static String _stamp;
+
+    /** Returns the number of commits in the graph. */
+    static int count() {
+        load();
+        return _rows.limit() / ROW;
+    }
+
+    /** Returns the position of the commit ID, or NONE if it is not in the graph. */
+    static int position(String id) {
+        load();
+        if (_positions == null) {
+            _positions = new HashMap<>();
+            for (int pos = 0; pos < count(); pos += 1) {
+                _positions.put(id(pos), pos);
+            }
+        }
+        Integer pos = _positions.get(id);
+        return pos == null ? NONE : pos;
+    }
+
+    /** Returns the ID of the commit at POS. */
+    static String id(int pos) {
+        load();
+        byte[] raw = new byte[IdTable.RAW_ID_LENGTH];
+        _rows.get(pos * ROW, raw);
+        return IdTable.toHex(raw);
+    }
+
+    /** Returns the position of the first parent of the commit at POS, or NONE. */
+    static int parent(int pos) {
+        load();
+        return _rows.getInt(pos * ROW + PARENT1);
+    }
+
+    /** Returns the position of the second parent of the commit at POS, or NONE. */
+    static int secondParent(int pos) {
+        load();
+        return _rows.getInt(pos * ROW + PARENT2);
+    }
+
+    /** Returns the generation number of the commit at POS. */
+    static int generation(int pos) {
+        load();
+        return _rows.getInt(pos * ROW + GENERATION);
+    }
+
+    /** Returns the timestamp of the commit at POS, in seconds. */
+    static long timestamp(int pos) {
+        load();
+        return _rows.getLong(pos * ROW + TIME);
+    }
+
+    /** Returns the position of the commit that is RANKth from the oldest
+     *  in chronological order. */
+    static int byTime(int rank) {
+        loadOrder();
+        return _order.get(rank);
+    }
+
+    /** Returns the number of commits older than SECONDS. */
+    static int timeRank(long seconds) {
+        loadOrder();
+        int lo = 0;
+        int hi = _order.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamp(_order.get(mid)) < seconds) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the timestamp of the commit at POS as Commit.getTime would. */
+    static String time(int pos) {
+        return LocalDateTime.ofEpochSecond(timestamp(pos), 0, ZoneOffset.UTC).format(TIME_FORMAT);
+    }
+
+    /** Returns the log message of the commit at POS. */
+    static String message(int pos) {
+        load();
+        int offset = (int) _rows.getLong(pos * ROW + MESSAGE);
+        byte[] bytes = new byte[_messages.getInt(offset)];
+        _messages.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Appends the newly created commit C, whose parents must already be in
+     *  the graph, and returns its position. Does nothing but return its
+     *  position if C is already present. */
+    static int add(Commit c) {
+        int existing = position(c.getID());
+        if (existing != NONE) {
+            return existing;
+        }
+        int parent1 = c.getParentID().equals("0") ? NONE : position(c.getParentID());
+        int parent2 = c.getSecondParentID() == null ? NONE : position(c.getSecondParentID());
+        int generation = 1;
+        for (int p : new int[] { parent1, parent2 }) {
+            if (p != NONE) {
+                generation = Math.max(generation, generation(p) + 1);
+            }
+        }
+        long seconds = toSeconds(c.getTime());
+        int count = count();
+        boolean inOrder = count == 0 || timestamp(byTime(count - 1)) <= seconds;
+        long messageOffset = count == 0 ? 0 : messageEnd(count - 1);
+        try {
+            truncate(MESSAGES, messageOffset);
+            truncate(GRAPH, HEADER + (long) count * ROW);
+            truncate(ORDER, count * 4L);
+            byte[] message = c.getLog().getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(message.length);
+            out.write(message);
+            append(MESSAGES, bytes.toByteArray());
+
+            bytes.reset();
+            out.write(IdTable.fromHex(c.getID()));
+            out.writeInt(parent1);
+            out.writeInt(parent2);
+            out.writeInt(generation);
+            out.writeLong(seconds);
+            out.writeLong(messageOffset);
+            append(GRAPH, bytes.toByteArray());
+
+            if (inOrder) {
+                bytes.reset();
+                out.writeInt(count);
+                append(ORDER, bytes.toByteArray());
+            } else {
+                ORDER.delete();
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Could not update commit graph.");
+        }
+        int pos = count;
+        _rows = null;
+        _order = null;
+        _positions.put(c.getID(), pos);
+        return pos;
+    }
+
+    /** Returns the timestamp TIME, as formatted by Commit, in seconds.
+     *  Older versions dropped the seconds of times that fell on a whole
+     *  minute; those are read as the start of that minute. */
+    static long toSeconds(String time) {
+        try {
+            return LocalDateTime.parse(time, TIME_FORMAT).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException excp) {
+            return toSeconds(time.substring(0, 16) + ":00");
+        }
+    }
+
+    /** Returns the offset in MESSAGES just past the log message of the
+     *  commit at POS. */
+    private static long messageEnd(int pos) {
+        load();
+        long offset = _rows.getLong(pos * ROW + MESSAGE);
+        return offset + 4 + _messages.getInt((int) offset);
+    }
+
+    /** Cuts FILE back to its first LENGTH bytes if it is longer, dropping
+     *  whatever an interrupted add left after them. */
+    private static void truncate(File file, long length) throws IOException {
+        if (file.length() > length) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+        }
+    }
+
+    /** Appends BYTES to FILE. */
+    private static void append(File file, byte[] bytes) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(bytes);
+        }
+    }
+
+    /** Maps GRAPH and MESSAGES, first building them from the commits in the
+     *  object store if this repository does not have a graph yet. */
+    private static void load() {
+        if (_rows != null) {
+            return;
+        }
+        if (!GRAPH.isFile()) {
+            rebuild();
+        }
+        try {
+            _stamp = Utils.stamp(GRAPH, MESSAGES);
+            _rows = map(GRAPH);
+            _messages = map(MESSAGES);
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt commit graph.");
+        }
+        if (_rows.limit() < HEADER || _rows.getInt(0) != 0x43475048
+                || _rows.getInt(4) != VERSION) {
+            throw new GitletException("Unrecognized commit graph.");
+        }
+        _rows.position(HEADER);
+        _rows = _rows.slice();
+        _rows.limit(_rows.limit() - _rows.limit() % ROW);
+    }
+
+    /** Forgets the mapped graph if another process has changed it since. */
+    static void refresh() {
+        if (_rows != null && !Utils.stamp(GRAPH, MESSAGES).equals(_stamp)) {
+            _rows = null;
+            _messages = null;
+            _positions = null;
+            _order = null;
+        }
+    }
+
+    /** Loads ORDER, first rebuilding it if it does not list every commit
+     *  in the graph. Under a shared lock, the order is instead computed
+     *  without being written. */
+    private static void loadOrder() {
+        if (_order != null) {
+            return;
+        }
+        int count = count();
+        if (ORDER.length() != (long) count * 4) {
+            Integer[] positions = new Integer[count];
+            for (int pos = 0; pos < count; pos += 1) {
+                positions[pos] = pos;
+            }
+            Arrays.sort(positions, (a, b) -> timestamp(a) != timestamp(b)
+                ? Long.compare(timestamp(a), timestamp(b)) : Integer.compare(a, b));
+            ByteBuffer order = ByteBuffer.allocate(count * 4);
+            for (int pos : positions) {
+                order.putInt(pos);
+            }
+            order.flip();
+            _order = order.asIntBuffer();
+            if (!RepoLock.isShared()) {
+                File tmp = new File(".gitlet/tmp_commit-graph.order");
+                Utils.writeContents(tmp, order.array());
+                ObjectStore.install(tmp, ORDER);
+            }
+            return;
+        }
+        try {
+            _order = map(ORDER).asIntBuffer();
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt commit graph.");
+        }
+    }
+
+    /** Returns the contents of FILE, mapped read-only. */
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Writes a new graph of every commit in the object store, each after
+     *  its parents. */
+    static void rebuild() {
+        File tmp = new File(".gitlet/tmp_commit-graph");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            out.writeBytes("CGPH");
+            out.writeInt(VERSION);
+        } catch (IOException excp) {
+            throw new GitletException("Could not write commit graph.");
+        }
+        MESSAGES.delete();
+        ORDER.delete();
+        ChangedPaths.clear();
+        _order = null;
+        Utils.writeContents(MESSAGES, new byte[0]);
+        ObjectStore.install(tmp, GRAPH);
+        _rows = null;
+        _positions = new HashMap<>();
+
+        Map<String, Commit> commits = new HashMap<>();
+        for (String id : ObjectStore.list(ObjectStore.COMMIT)) {
+            commits.put(id, Gitlet.getCommit(id));
+        }
+        List<Commit> sorted = new ArrayList<>(commits.values());
+        sorted.sort((a, b) -> a.getTime().equals(b.getTime())
+                ? a.getID().compareTo(b.getID()) : a.getTime().compareTo(b.getTime()));
+        Set<String> added = new HashSet<>();
+        for (Commit c : sorted) {
+            addWithAncestors(c, commits, added);
+        }
+    }
+
+    /** Adds C to the graph after any of its ancestors in COMMITS that are
+     *  not yet in ADDED. */
+    private static void addWithAncestors(Commit c, Map<String, Commit> commits,
+                                         Set<String> added) {
+        ArrayDeque<Commit> pending = new ArrayDeque<>();
+        pending.push(c);
+        while (!pending.isEmpty()) {
+            Commit next = pending.peek();
+            if (added.contains(next.getID())) {
+                pending.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (String parent : new String[] { next.getParentID(), next.getSecondParentID() }) {
+                Commit p = parent == null ? null : commits.get(parent);
+                if (p != null && !added.contains(parent)) {
+                    pending.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                add(next);
+                added.add(next.getID());
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/** A long-lived process that runs Gitlet commands for the repository in
+ *  its working directory, so that they need not each pay for starting a
+ *  JVM and loading the repository's indices afresh.
+ *
+ *  Started by "daemon" and stopped by "daemon stop", the daemon listens
+ *  on the Unix domain socket .gitlet/daemon.sock and runs one command at a
+ *  time. A client sends its working directory, its environment variables
+ *  whose names start with GITLET_, and its arguments. The daemon replies
+ *  with frames, each a stream number (STDOUT or STDERR), a length and that
+ *  many bytes of output, ending with an END frame whose length field is
+ *  the exit status, or FALLBACK if the client should run the command
+ *  itself.
+ */
+class Daemon {
+
+    /** The socket on which the daemon of a repository listens. */
+    static final File SOCKET = new File(".gitlet/daemon.sock");
+
+    /** Stream numbers of reply frames. */
+    private static final int END = 0, STDOUT = 1, STDERR = 2;
+    /** Exit status telling the client to run the command itself. */
+    private static final int FALLBACK = -1;
+    /** Most output held back before it is sent as a frame. */
+    private static final int FRAME_SIZE = 1 << 16;
+
+    /** The environment of the client whose command is running, or null if
+     *  this process is not a daemon running a command. */
+    private static Map<String, String> _clientEnv;
+    /** False once the daemon has been asked to stop. */
+    private static boolean _running;
+
+    /** Returns the environment of the client whose command is running, or
+     *  null if this process is not a daemon running a command. */
+    static Map<String, String> clientEnvironment() {
+        return _clientEnv;
+    }
+
+    /** Sends the command ARGS to the daemon serving the current directory
+     *  and copies its output to this process's standard output and error.
+     *  Returns false, having done nothing, if there is no such daemon. */
+    static boolean forward(String[] args) {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (SocketChannel open = channel;
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                 Channels.newOutputStream(open)));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(
+                 Channels.newInputStream(open)))) {
+            out.writeUTF(new File("").getAbsolutePath());
+            Map<String, String> env = new HashMap<>();
+            for (Map.Entry<String, String> var : System.getenv().entrySet()) {
+                if (var.getKey().startsWith("GITLET_")) {
+                    env.put(var.getKey(), var.getValue());
+                }
+            }
+            out.writeInt(env.size());
+            for (Map.Entry<String, String> var : env.entrySet()) {
+                out.writeUTF(var.getKey());
+                out.writeUTF(var.getValue());
+            }
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            while (true) {
+                int stream = in.readByte();
+                int length = in.readInt();
+                if (stream == END) {
+                    if (length == FALLBACK) {
+                        return false;
+                    } else if (length != 0) {
+                        System.exit(length);
+                    }
+                    return true;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                PrintStream dest = stream == STDERR ? System.err : System.out;
+                dest.write(data, 0, length);
+                dest.flush();
+            }
+        } catch (IOException excp) {
+            System.err.println("Lost connection to gitlet daemon.");
+            System.exit(1);
+            return true;
+        }
+    }
+
+    /** Runs a daemon for the repository in the current directory until it
+     *  is stopped, or, if OPTIONS is "stop", reports that none is running
+     *  (a running daemon handles "daemon stop" itself). */
+    static void serve(String[] options) {
+        if (options.length == 1 && options[0].equals("stop")) {
+            System.out.println("No daemon is running.");
+            return;
+        } else if (options.length != 0) {
+            System.out.print("Incorrect operands.");
+            return;
+        }
+        SOCKET.delete();
+        String root = new File("").getAbsolutePath();
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            _running = true;
+            while (_running) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client, root);
+                } catch (IOException excp) {
+                    continue;
+                } finally {
+                    System.setOut(stdout);
+                    System.setErr(stderr);
+                    _clientEnv = null;
+                }
+            }
+        } catch (IOException excp) {
+            System.err.println("Could not start gitlet daemon: " + excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Reads one command from CLIENT and runs it, provided the client is in
+     *  ROOT, sending the client its output and exit status. */
+    private static void handle(SocketChannel client, String root) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Channels.newInputStream(client)));
+        DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(
+            Channels.newOutputStream(client)));
+        String cwd = in.readUTF();
+        Map<String, String> env = new HashMap<>();
+        for (int k = in.readInt(); k > 0; k -= 1) {
+            env.put(in.readUTF(), in.readUTF());
+        }
+        String[] args = new String[in.readInt()];
+        for (int k = 0; k < args.length; k += 1) {
+            args[k] = in.readUTF();
+        }
+        if (!cwd.equals(root)) {
+            sendEnd(reply, FALLBACK);
+            return;
+        }
+
+        PrintStream out = new PrintStream(new FrameOutputStream(reply, STDOUT), false);
+        PrintStream err = new PrintStream(new FrameOutputStream(reply, STDERR), false);
+        System.setOut(out);
+        System.setErr(err);
+        _clientEnv = env;
+        int status = 0;
+        try {
+            refresh();
+            if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+                _running = false;
+            } else if (args.length > 0 && args[0].equals("daemon")) {
+                System.out.println("A daemon is already running.");
+            } else {
+                Main.run(args);
+            }
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            status = 1;
+        }
+        out.flush();
+        err.flush();
+        sendEnd(reply, status);
+    }
+
+    /** Forgets whatever this process has cached about files of the
+     *  repository that have changed since they were read. */
+    static void refresh() {
+        ObjectIndex.refresh();
+        CommitGraph.refresh();
+        MessageIndex.refresh();
+        ChangedPaths.refresh();
+        PackFile.refresh();
+        ObjectCache.refresh();
+    }
+
+    /** Sends the END frame with STATUS to REPLY. */
+    private static void sendEnd(DataOutputStream reply, int status) throws IOException {
+        synchronized (reply) {
+            reply.writeByte(END);
+            reply.writeInt(status);
+            reply.flush();
+        }
+    }
+
+    /** An output stream that sends what is written to it as frames on one
+     *  stream number of a reply. */
+    private static class FrameOutputStream extends OutputStream {
+
+        /** A stream sending frames for STREAM to REPLY. */
+        FrameOutputStream(DataOutputStream reply, int stream) {
+            _reply = reply;
+            _stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (_count == _buffer.length) {
+                flush();
+            }
+            _buffer[_count] = (byte) b;
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            while (len > 0) {
+                if (_count == _buffer.length) {
+                    flush();
+                }
+                int n = Math.min(len, _buffer.length - _count);
+                System.arraycopy(bytes, off, _buffer, _count, n);
+                _count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (_count == 0) {
+                return;
+            }
+            synchronized (_reply) {
+                _reply.writeByte(_stream);
+                _reply.writeInt(_count);
+                _reply.write(_buffer, 0, _count);
+                _reply.flush();
+            }
+            _count = 0;
+        }
+
+        /** Where frames are sent. */
+        private final DataOutputStream _reply;
+        /** The stream number of frames. */
+        private final int _stream;
+        /** Output not yet sent. */
+        private final byte[] _buffer = new byte[FRAME_SIZE];
+        /** Number of bytes in _buffer. */
+        private int _count;
+    }
+}
@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Binary deltas between two versions of an object's body.
+ *  A delta begins with the lengths of the base and of the result, followed
+ *  by instructions that either copy a range of the base or insert literal
+ *  bytes. All integers are unsigned variable-length (7 bits per byte).
+ */
+class Delta {
+
+    /** Instruction that inserts the literal bytes that follow it. */
+    private static final int INSERT = 0;
+    /** Instruction that copies a range of the base. */
+    private static final int COPY = 1;
+    /** Length of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+    /** Log2 of the size of the block hash table. */
+    private static final int TABLE_BITS = 16;
+
+    /** Returns a delta that transforms BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int[] table = new int[1 << TABLE_BITS];
+        Arrays.fill(table, -1);
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            table[hash(base, i)] = i;
+        }
+
+        int pending = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table[hash(target, i)];
+            if (candidate < 0 || !matches(base, candidate, target, i, BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int start = candidate;
+            int end = candidate + BLOCK;
+            int tEnd = i + BLOCK;
+            while (start > 0 && i > pending && base[start - 1] == target[i - 1]) {
+                start -= 1;
+                i -= 1;
+            }
+            while (end < base.length && tEnd < target.length && base[end] == target[tEnd]) {
+                end += 1;
+                tEnd += 1;
+            }
+            writeInsert(out, target, pending, i);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, end - start);
+            i = tEnd;
+            pending = tEnd;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = { 0 };
+        if (readVarint(delta, pos) != base.length) {
+            throw new GitletException("Delta does not match its base.");
+        }
+        byte[] result = new byte[(int) readVarint(delta, pos)];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int start = (int) readVarint(delta, pos);
+                int len = (int) readVarint(delta, pos);
+                System.arraycopy(base, start, result, n, len);
+                n += len;
+            } else {
+                int len = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, n, len);
+                pos[0] += len;
+                n += len;
+            }
+        }
+        if (n != result.length) {
+            throw new GitletException("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Writes an instruction inserting TARGET[FROM..TO) to OUT, if that
+     *  range is not empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Returns true iff the LEN bytes of A at I equal those of B at J. */
+    private static boolean matches(byte[] a, int i, byte[] b, int j, int len) {
+        return Arrays.equals(a, i, i + len, b, j, j + len);
+    }
+
+    /** Returns the hash table slot of the block of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * 31 + data[k];
+        }
+        return (h ^ (h >>> TABLE_BITS)) & ((1 << TABLE_BITS) - 1);
+    }
+
+    /** Writes the non-negative VALUE to OUT as a varint. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads a varint from DATA at POS[0], advancing POS[0] past it. */
+    static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
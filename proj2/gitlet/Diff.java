@@ -0,0 +1,398 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Line-by-line comparison, unified listing and three-way merging of file
+ *  contents.
+ *
+ *  Differences are found with Myers' O((N+M)D) algorithm in its
+ *  linear-space form, which repeatedly finds the middle snake of the edit
+ *  graph and recurses on either side of it, after first setting aside any
+ *  common prefix and suffix. Lines are compared as small integers, equal
+ *  lines of all the texts involved having been given equal numbers.
+ */
+class Diff {
+
+    /** Marker lines of a conflict. */
+    static final String OURS = "<<<<<<< HEAD\n", SEPARATOR = "=======\n",
+        THEIRS = ">>>>>>>\n";
+    /** Largest contents, in bytes, that are compared or merged line by
+     *  line. Larger files are treated as binary, so that no more than a few
+     *  files of this size are ever held in memory at once. */
+    static final long MAX_SIZE = 1L << 26;
+    /** Follows a line of a unified diff that ends without a newline. */
+    private static final byte[] NO_NEWLINE =
+        "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /** A run of lines A[aStart, aEnd) replaced by B[bStart, bEnd). */
+    static class Hunk {
+        /** The replaced lines of A. */
+        final int aStart, aEnd;
+        /** The replacing lines of B. */
+        final int bStart, bEnd;
+
+        /** A hunk replacing A[ASTART, AEND) by B[BSTART, BEND). */
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** The lines of some file contents. */
+    static class Lines {
+        /** The contents. */
+        final byte[] text;
+        /** The offset of the start of each line in TEXT, followed by the
+         *  length of TEXT. Each line includes its terminating newline, if
+         *  it has one. */
+        final int[] starts;
+        /** The number of each line, equal lines numbered alike. */
+        int[] ids;
+
+        /** The lines of TEXT. */
+        Lines(byte[] text) {
+            this.text = text;
+            int count = 0;
+            for (byte b : text) {
+                if (b == '\n') {
+                    count += 1;
+                }
+            }
+            boolean partial = text.length > 0 && text[text.length - 1] != '\n';
+            starts = new int[count + (partial ? 1 : 0) + 1];
+            int line = 1;
+            for (int k = 0; k < text.length; k += 1) {
+                if (text[k] == '\n' && line < starts.length) {
+                    starts[line] = k + 1;
+                    line += 1;
+                }
+            }
+            starts[starts.length - 1] = text.length;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return starts.length - 1;
+        }
+
+        /** Returns line K as a string, without its newline. */
+        String get(int k) {
+            int end = starts[k + 1];
+            if (end > starts[k] && text[end - 1] == '\n') {
+                end -= 1;
+            }
+            return new String(text, starts[k], end - starts[k], StandardCharsets.UTF_8);
+        }
+
+        /** Writes lines [FROM, TO) to OUT, ending them with a newline if
+         *  the last has none and NEWLINE. */
+        void write(OutputStream out, int from, int to, boolean newline) throws IOException {
+            out.write(text, starts[from], starts[to] - starts[from]);
+            if (newline && to > from && text[starts[to] - 1] != '\n') {
+                out.write('\n');
+            }
+        }
+
+        /** Returns true iff TEXT contains a NUL byte, as binary files do. */
+        boolean isBinary() {
+            for (byte b : text) {
+                if (b == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Numbers the lines of ALL so that equal lines, in any of them, have
+     *  equal numbers. */
+    static void number(Lines... all) {
+        Map<LineKey, Integer> numbers = new HashMap<>();
+        for (Lines lines : all) {
+            lines.ids = new int[lines.size()];
+            for (int k = 0; k < lines.size(); k += 1) {
+                LineKey key = new LineKey(lines.text, lines.starts[k], lines.starts[k + 1]);
+                Integer id = numbers.putIfAbsent(key, numbers.size());
+                lines.ids[k] = id == null ? numbers.size() - 1 : id;
+            }
+        }
+    }
+
+    /** Returns the hunks that turn the lines numbered A into those
+     *  numbered B, in order. */
+    static List<Hunk> diff(int[] a, int[] b) {
+        List<Hunk> result = new ArrayList<>();
+        diff(a, 0, a.length, b, 0, b.length, result);
+        return result;
+    }
+
+    /** Appends to RESULT the hunks that turn A[ALO, AHI) into B[BLO, BHI). */
+    private static void diff(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                             List<Hunk> result) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                add(result, new Hunk(aLo, aHi, bLo, bHi));
+            }
+            return;
+        }
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi);
+        diff(a, aLo, snake[0], b, bLo, snake[1], result);
+        diff(a, snake[2], aHi, b, snake[3], bHi, result);
+    }
+
+    /** Appends HUNK to RESULT, joining it to the last hunk if they touch. */
+    private static void add(List<Hunk> result, Hunk hunk) {
+        Hunk last = result.isEmpty() ? null : result.get(result.size() - 1);
+        if (last != null && last.aEnd == hunk.aStart && last.bEnd == hunk.bStart) {
+            result.set(result.size() - 1, new Hunk(last.aStart, hunk.aEnd,
+                last.bStart, hunk.bEnd));
+        } else {
+            result.add(hunk);
+        }
+    }
+
+    /** Returns the start and end points {x, y, u, v} of the middle snake of
+     *  a shortest edit script turning A[ALO, AHI) into B[BLO, BHI), which
+     *  must differ in their first lines and in their last lines. */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        int[] forward = new int[2 * max + 3];
+        int[] backward = new int[2 * max + 3];
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && forward[offset + k - 1] < forward[offset + k + 1]
+                    ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+                    return new int[] { aLo + x0, bLo + y0, aLo + x, bLo + y };
+                }
+            }
+            for (int c = -d; c <= d; c += 2) {
+                int x = c == -d || c != d && backward[offset + c - 1] < backward[offset + c + 1]
+                    ? backward[offset + c + 1] : backward[offset + c - 1] + 1;
+                int y = x - c;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + c] = x;
+                int k = delta - c;
+                if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n) {
+                    return new int[] { aHi - x, bHi - y, aHi - x0, bHi - y0 };
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Lines of unchanged context shown around each change in a unified
+     *  diff. */
+    static final int CONTEXT = 3;
+
+    /** Writes HUNKS, the differences between A and B, to OUT in unified
+     *  form: changes separated by no more than twice CONTEXT unchanged lines
+     *  share one hunk, which shows up to CONTEXT lines on either side. The
+     *  lines are copied directly from the contents of A and B. */
+    static void unified(Lines a, Lines b, List<Hunk> hunks,
+                        OutputStream out) throws IOException {
+        int k = 0;
+        while (k < hunks.size()) {
+            int first = k;
+            while (k + 1 < hunks.size()
+                   && hunks.get(k + 1).aStart - hunks.get(k).aEnd <= 2 * CONTEXT) {
+                k += 1;
+            }
+            Hunk start = hunks.get(first);
+            Hunk end = hunks.get(k);
+            int aFrom = Math.max(0, start.aStart - CONTEXT);
+            int bFrom = start.bStart - (start.aStart - aFrom);
+            int aTo = Math.min(a.size(), end.aEnd + CONTEXT);
+            int bTo = end.bEnd + (aTo - end.aEnd);
+            out.write(("@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo) + " @@\n")
+                .getBytes(StandardCharsets.UTF_8));
+            int pos = aFrom;
+            for (Hunk hunk : hunks.subList(first, k + 1)) {
+                writeLines(out, ' ', a, pos, hunk.aStart);
+                writeLines(out, '-', a, hunk.aStart, hunk.aEnd);
+                writeLines(out, '+', b, hunk.bStart, hunk.bEnd);
+                pos = hunk.aEnd;
+            }
+            writeLines(out, ' ', a, pos, aTo);
+            k += 1;
+        }
+    }
+
+    /** Returns the lines [FROM, TO) as a range of a unified hunk header. */
+    private static String range(int from, int to) {
+        if (to - from == 1) {
+            return Integer.toString(from + 1);
+        }
+        return (to == from ? from : from + 1) + "," + (to - from);
+    }
+
+    /** Writes lines [FROM, TO) of LINES to OUT, each after PREFIX, noting
+     *  a last line that lacks a newline. */
+    private static void writeLines(OutputStream out, char prefix, Lines lines,
+                                   int from, int to) throws IOException {
+        for (int k = from; k < to; k += 1) {
+            out.write(prefix);
+            lines.write(out, k, k + 1, false);
+            if (lines.text[lines.starts[k + 1] - 1] != '\n') {
+                out.write(NO_NEWLINE);
+            }
+        }
+    }
+
+    /** Writes to OUT the result of merging the changes that turned BASE into
+     *  OURS with those that turned BASE into THEIRS. Where both changed the
+     *  same or adjacent lines differently, writes both versions between
+     *  conflict markers. Returns true iff there were conflicts. Binary
+     *  contents conflict as a whole. */
+    static boolean merge(byte[] base, byte[] ours, byte[] theirs,
+                         OutputStream out) throws IOException {
+        Lines o = new Lines(base);
+        Lines a = new Lines(ours);
+        Lines b = new Lines(theirs);
+        if (o.isBinary() || a.isBinary() || b.isBinary()) {
+            writeConflict(out, a, 0, a.size(), b, 0, b.size());
+            return true;
+        }
+        number(o, a, b);
+        List<Hunk> ha = diff(o.ids, a.ids);
+        List<Hunk> hb = diff(o.ids, b.ids);
+
+        boolean conflict = false;
+        int pos = 0;
+        int offA = 0;
+        int offB = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ha.size() || j < hb.size()) {
+            int start = Math.min(i < ha.size() ? ha.get(i).aStart : Integer.MAX_VALUE,
+                j < hb.size() ? hb.get(j).aStart : Integer.MAX_VALUE);
+            int end = start;
+            int firstA = i;
+            int firstB = j;
+            while (true) {
+                if (i < ha.size() && ha.get(i).aStart <= end) {
+                    end = Math.max(end, ha.get(i).aEnd);
+                    i += 1;
+                } else if (j < hb.size() && hb.get(j).aStart <= end) {
+                    end = Math.max(end, hb.get(j).aEnd);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            o.write(out, pos, start, false);
+            int aStart = start + offA;
+            int bStart = start + offB;
+            if (i > firstA) {
+                offA = ha.get(i - 1).bEnd - ha.get(i - 1).aEnd;
+            }
+            if (j > firstB) {
+                offB = hb.get(j - 1).bEnd - hb.get(j - 1).aEnd;
+            }
+            int aEnd = end + offA;
+            int bEnd = end + offB;
+            if (j == firstB || i > firstA && sameLines(a, aStart, aEnd, b, bStart, bEnd)) {
+                a.write(out, aStart, aEnd, false);
+            } else if (i == firstA) {
+                b.write(out, bStart, bEnd, false);
+            } else {
+                writeConflict(out, a, aStart, aEnd, b, bStart, bEnd);
+                conflict = true;
+            }
+            pos = end;
+        }
+        o.write(out, pos, o.size(), false);
+        return conflict;
+    }
+
+    /** Writes a conflict between lines [ASTART, AEND) of A and lines
+     *  [BSTART, BEND) of B to OUT. */
+    private static void writeConflict(OutputStream out, Lines a, int aStart, int aEnd,
+                                      Lines b, int bStart, int bEnd) throws IOException {
+        out.write(OURS.getBytes(StandardCharsets.UTF_8));
+        a.write(out, aStart, aEnd, true);
+        out.write(SEPARATOR.getBytes(StandardCharsets.UTF_8));
+        b.write(out, bStart, bEnd, true);
+        out.write(THEIRS.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns true iff lines [ASTART, AEND) of A equal lines [BSTART, BEND)
+     *  of B. */
+    private static boolean sameLines(Lines a, int aStart, int aEnd,
+                                     Lines b, int bStart, int bEnd) {
+        return Arrays.equals(a.ids, aStart, aEnd, b.ids, bStart, bEnd);
+    }
+
+    /** A line of some contents, as a key of a hash table. */
+    private static class LineKey {
+        /** The line TEXT[START, END). */
+        LineKey(byte[] text, int start, int end) {
+            _text = text;
+            _start = start;
+            _end = end;
+            int hash = 1;
+            for (int k = start; k < end; k += 1) {
+                hash = 31 * hash + text[k];
+            }
+            _hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LineKey)) {
+                return false;
+            }
+            LineKey other = (LineKey) obj;
+            return _hash == other._hash
+                && Arrays.equals(_text, _start, _end, other._text, other._start, other._end);
+        }
+
+        /** The contents containing the line. */
+        private final byte[] _text;
+        /** The bounds of the line in _TEXT. */
+        private final int _start, _end;
+        /** The hash of the line. */
+        private final int _hash;
+    }
+}
@@ -0,0 +1,496 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/** The index: the staging area of a repository, together with the stat
+ *  data (size, modification time and inode) each tracked file had when it
+ *  was last known to match its blob, so that unchanged files need not be
+ *  rehashed.
+ *
+ *  .gitlet/index holds the magic "DIRC", a version, an entry count and a
+ *  generation number, then one entry per path in sorted order: the path,
+ *  its state, its size, modification time in nanoseconds and inode, and the
+ *  raw ID of its blob.
+ *
+ *  Staging a single path does not rewrite the index. Instead the new entry
+ *  for that path is appended to .gitlet/index.log, which starts with the
+ *  generation of the index it applies to and is replayed on top of it when
+ *  read. Writing the index bumps its generation and deletes the journal, so
+ *  a journal left behind by an interrupted write is never replayed.
+ */
+class Dirstate {
+
+    /** The index file. */
+    static final File INDEX = new File(".gitlet/index");
+    /** Entries changed since INDEX was written. */
+    static final File JOURNAL = new File(".gitlet/index.log");
+
+    /** State of a file tracked by the current commit and not staged. */
+    static final int TRACKED = 0;
+    /** State of a file staged for addition. */
+    static final int STAGED = 1;
+    /** State of a file staged for removal. */
+    static final int REMOVED = 2;
+
+    /** State recorded in the journal for a path that has left the index. */
+    private static final int FORGOTTEN = -1;
+
+    /** Format version of INDEX. Version 1 lacked the generation number. */
+    private static final int VERSION = 2;
+    /** Size of the journal, in entries, that triggers rewriting INDEX. */
+    private static final int COMPACT_THRESHOLD = 1024;
+    /** The ID recorded in entries that have no blob: that of empty contents. */
+    private static final ObjectId NO_BLOB = ObjectId.fromHex(Utils.sha1(""));
+
+    /** One path in the index. */
+    static class Entry {
+        /** One of TRACKED, STAGED or REMOVED. */
+        int state;
+        /** The ID of the blob this path is known to hold. */
+        ObjectId id;
+        /** Size of the file when it last matched ID. */
+        long size;
+        /** Modification time, in nanoseconds, of the file when it last
+         *  matched ID. */
+        long mtime;
+        /** Inode of the file when it last matched ID, or 0 if unknown. */
+        long inode;
+
+        /** An entry in STATE for blob ID, with the stat data STAT. */
+        Entry(int state, ObjectId id, long[] stat) {
+            this.state = state;
+            this.id = id;
+            if (stat != null) {
+                size = stat[0];
+                mtime = stat[1];
+                inode = stat[2];
+            }
+        }
+    }
+
+    /** Entries by path. */
+    private final TreeMap<String, Entry> _entries = new TreeMap<>();
+    /** Modification time of INDEX when it was read, in nanoseconds. Files
+     *  modified at or after this time may have changed without their stat
+     *  data showing it, so their cached data is not trusted. */
+    private long _readTime = Long.MIN_VALUE;
+    /** True iff the stat data of some entry has been refreshed since this
+     *  index was read. */
+    private boolean _refreshed;
+    /** Generation number of INDEX. */
+    private long _generation;
+    /** Number of entries in JOURNAL. */
+    private int _journalLength;
+
+    /** Returns the index of the current repository, converting the
+     *  staging_area and marked files of older repositories if necessary. */
+    static Dirstate read() {
+        Dirstate result = new Dirstate();
+        if (!INDEX.isFile()) {
+            result.migrate();
+            return result;
+        }
+        try {
+            Trace.time("index-read", () -> {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(INDEX)))) {
+                    result._readTime =
+                        Files.getLastModifiedTime(INDEX.toPath()).to(TimeUnit.NANOSECONDS);
+                    int version = in.readInt() == 0x44495243 ? in.readInt() : -1;
+                    if (version != 1 && version != VERSION) {
+                        throw new GitletException("Unrecognized index.");
+                    }
+                    int count = in.readInt();
+                    result._generation = version == 1 ? 0 : in.readLong();
+                    for (int k = 0; k < count; k += 1) {
+                        result.readEntry(in);
+                    }
+                }
+            });
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt index.");
+        }
+        result.replay();
+        return result;
+    }
+
+    /** Applies the entries of JOURNAL, deleting it instead if it belongs
+     *  to an older generation of the index. An incomplete final entry, left
+     *  by an interrupted append, is cut off. */
+    private void replay() {
+        if (!JOURNAL.isFile()) {
+            return;
+        }
+        byte[] journal = Utils.readContents(JOURNAL);
+        ByteArrayInputStream bytes = new ByteArrayInputStream(journal);
+        DataInputStream in = new DataInputStream(bytes);
+        int valid = 0;
+        try {
+            if (in.readLong() != _generation) {
+                if (!RepoLock.isShared()) {
+                    JOURNAL.delete();
+                }
+                return;
+            }
+            while (true) {
+                valid = journal.length - bytes.available();
+                readEntry(in);
+                _journalLength += 1;
+            }
+        } catch (IOException excp) {
+            if (RepoLock.isShared()) {
+                return;
+            } else if (valid < Long.BYTES) {
+                JOURNAL.delete();
+            } else if (valid < journal.length) {
+                Utils.writeContents(JOURNAL, Arrays.copyOf(journal, valid));
+            }
+        }
+    }
+
+    /** Reads one entry from IN into this index. */
+    private void readEntry(DataInputStream in) throws IOException {
+        String path = in.readUTF();
+        Entry e = new Entry(in.readByte(), null, null);
+        e.size = in.readLong();
+        e.mtime = in.readLong();
+        e.inode = in.readLong();
+        byte[] raw = new byte[ObjectId.RAW_LENGTH];
+        in.readFully(raw);
+        e.id = ObjectId.fromRaw(raw);
+        if (e.state == FORGOTTEN) {
+            _entries.remove(path);
+        } else {
+            _entries.put(path, e);
+        }
+    }
+
+    /** Writes the entry E for PATH to OUT. */
+    private static void writeEntry(DataOutputStream out, String path,
+                                   Entry e) throws IOException {
+        out.writeUTF(path);
+        out.writeByte(e.state);
+        out.writeLong(e.size);
+        out.writeLong(e.mtime);
+        out.writeLong(e.inode);
+        out.write(e.id.raw());
+    }
+
+    /** Replaces INDEX with the contents of this index and discards JOURNAL. */
+    void write() {
+        File tmp;
+        try {
+            tmp = File.createTempFile("tmp_index", null, INDEX.getParentFile());
+        } catch (IOException excp) {
+            throw new GitletException("Could not write index.");
+        }
+        try {
+            Trace.time("index-write", () -> {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tmp)))) {
+                    out.writeBytes("DIRC");
+                    out.writeInt(VERSION);
+                    out.writeInt(_entries.size());
+                    out.writeLong(_generation + 1);
+                    for (Map.Entry<String, Entry> item : _entries.entrySet()) {
+                        writeEntry(out, item.getKey(), item.getValue());
+                    }
+                }
+            });
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new GitletException("Could not write index.");
+        }
+        ObjectStore.install(tmp, INDEX);
+        _generation += 1;
+        JOURNAL.delete();
+        _journalLength = 0;
+    }
+
+    /** Records the current entry for PATH, or its absence, by appending it
+     *  to JOURNAL, rewriting INDEX instead once the journal has grown long. */
+    void append(String path) {
+        append(Collections.singletonList(path));
+    }
+
+    /** Records the current entries for PATHS, or their absence, by appending
+     *  them to JOURNAL in a single write, rewriting INDEX instead once the
+     *  journal has grown long. */
+    void append(Collection<String> paths) {
+        if (_journalLength + paths.size() > COMPACT_THRESHOLD) {
+            write();
+            return;
+        }
+        boolean fresh = !JOURNAL.isFile();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(JOURNAL, true)))) {
+            if (fresh) {
+                out.writeLong(_generation);
+            }
+            for (String path : paths) {
+                Entry e = _entries.get(path);
+                if (e == null) {
+                    e = new Entry(FORGOTTEN, NO_BLOB, null);
+                }
+                writeEntry(out, path, e);
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Could not update index.");
+        }
+        _journalLength += paths.size();
+    }
+
+    /** Writes this index if the stat data of any entry has been refreshed
+     *  since it was read. Under a shared lock, other commands may be reading
+     *  the index, so it is only written if there is no journal for them to
+     *  lose sight of; each writer then installs the same entries. */
+    void writeIfRefreshed() {
+        if (_refreshed && (!RepoLock.isShared() || _journalLength == 0)) {
+            write();
+            _refreshed = false;
+        }
+    }
+
+    /** Fills this index from the files of the current commit together with
+     *  the serialized staging area and list of files marked for removal kept
+     *  by older versions of Gitlet, and deletes the latter. */
+    @SuppressWarnings("unchecked")
+    private void migrate() {
+        File stagingArea = new File(".gitlet/staging_area");
+        File marked = new File(".gitlet/marked");
+        if (!stagingArea.isFile() && !marked.isFile()) {
+            return;
+        }
+        Map<String, ObjectId> snap = Gitlet.getCurrentCommit().getSnapshot();
+        for (Map.Entry<String, ObjectId> item : snap.entrySet()) {
+            _entries.put(item.getKey(), new Entry(TRACKED, item.getValue(), null));
+        }
+        if (stagingArea.isFile()) {
+            Map<String, Blob> staged = (Map<String, Blob>) Gitlet.deserialize(stagingArea.getPath());
+            for (Map.Entry<String, Blob> item : staged.entrySet()) {
+                item.getValue().save();
+                _entries.put(item.getKey(),
+                    new Entry(STAGED, ObjectId.fromHex(item.getValue().getID()), null));
+            }
+        }
+        if (marked.isFile()) {
+            for (String path : (List<String>) Gitlet.deserialize(marked.getPath())) {
+                ObjectId id = snap.get(path);
+                _entries.put(path, new Entry(REMOVED, id == null ? NO_BLOB : id, null));
+            }
+        }
+        write();
+        stagingArea.delete();
+        marked.delete();
+    }
+
+    /** Returns the entry for PATH, or null if there is none. */
+    Entry get(String path) {
+        return _entries.get(path);
+    }
+
+    /** Returns all entries, by path. */
+    Map<String, Entry> entries() {
+        return _entries;
+    }
+
+    /** Returns the paths in STATE, in sorted order. */
+    List<String> paths(int state) {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Entry> item : _entries.entrySet()) {
+            if (item.getValue().state == state) {
+                result.add(item.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff any file is staged for addition or removal. */
+    boolean hasChanges() {
+        for (Entry e : _entries.values()) {
+            if (e.state != TRACKED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Records that PATH is in STATE with blob ID, and that the file now
+     *  has the stat data STAT (null if unknown). */
+    void put(String path, int state, ObjectId id, long[] stat) {
+        _entries.put(path, new Entry(state, id, stat));
+    }
+
+    /** Forgets PATH entirely. */
+    void remove(String path) {
+        _entries.remove(path);
+    }
+
+    /** Replaces all entries with TRACKED ones for the files of SNAPSHOT,
+     *  which maps paths to blob IDs. The entries of paths in WRITTEN, and of
+     *  any path not already tracked with the same blob, record the current
+     *  stat data of their files; the rest keep the stat data they had. */
+    void reset(Map<String, ObjectId> snapshot, Collection<String> written) {
+        Map<String, Entry> old = new TreeMap<>(_entries);
+        Set<String> rewritten = new HashSet<>(written);
+        _entries.clear();
+        for (Map.Entry<String, ObjectId> item : snapshot.entrySet()) {
+            String path = item.getKey();
+            Entry e = old.get(path);
+            if (e != null && e.state == TRACKED && e.id.equals(item.getValue())
+                    && !rewritten.contains(path)) {
+                _entries.put(path, e);
+            } else {
+                put(path, TRACKED, item.getValue(), stat(new File(path)));
+            }
+        }
+    }
+
+    /** Returns true iff PATH is tracked or staged and its file, whose
+     *  current stat data is STAT, can be trusted to still hold the blob its
+     *  entry records without rehashing it. */
+    boolean unchanged(String path, long[] stat) {
+        return matches(_entries.get(path), stat);
+    }
+
+    /** Returns true iff E is for a tracked or staged file whose stat data
+     *  is still STAT and was recorded safely before this index was read. */
+    private boolean matches(Entry e, long[] stat) {
+        return e != null && stat != null && e.state != REMOVED && e.size == stat[0]
+            && e.mtime == stat[1] && e.inode == stat[2] && stat[1] < _readTime;
+    }
+
+    /** Returns the ID of the contents of FILE, which is expected to hold
+     *  blob EXPECTED according to the entry E (which may be null). The file
+     *  is rehashed only if its stat data no longer matches E, in which case
+     *  E is refreshed if the contents turn out to be EXPECTED. Returns null
+     *  if FILE does not exist. */
+    ObjectId currentID(File file, Entry e, ObjectId expected) {
+        long[] stat = stat(file);
+        if (stat == null) {
+            return null;
+        } else if (matches(e, stat) && e.id.equals(expected)) {
+            return expected;
+        }
+        ObjectId id = Utils.sha1Id(file);
+        if (e != null && id.equals(expected) && id.equals(e.id)) {
+            e.size = stat[0];
+            e.mtime = stat[1];
+            e.inode = stat[2];
+            _refreshed = true;
+        }
+        return id;
+    }
+
+    /** Returns the paths, relative to the working directory and separated
+     *  by '/', of every plain file in the working tree outside .gitlet, in
+     *  sorted order. */
+    static List<String> workingFiles() {
+        List<String> result = new ArrayList<>();
+        Path root = Paths.get("");
+        SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.getFileName() != null && dir.getFileName().toString().equals(".gitlet")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Trace.count(Trace.Counter.DIRECTORY_LISTINGS);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    result.add(join(root.toAbsolutePath().relativize(file)));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        };
+        try {
+            Trace.time("working-files", () -> Files.walkFileTree(root.toAbsolutePath(), visitor));
+        } catch (IOException excp) {
+            throw new GitletException("Could not read working directory.");
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns PATH, which may be absolute or relative to the working
+     *  directory, in the form used by the index: relative to the working
+     *  directory, normalized, with components separated by '/'. Throws a
+     *  GitletException if PATH lies outside the working directory. */
+    static String toPath(Path path) {
+        Path root = Paths.get("").toAbsolutePath();
+        Path full = root.resolve(path).normalize();
+        if (!full.startsWith(root)) {
+            throw new GitletException("File is outside the working directory.");
+        }
+        return join(root.relativize(full));
+    }
+
+    /** Returns the components of the normalized relative path PATH joined
+     *  by '/'. */
+    private static String join(Path path) {
+        StringBuilder result = new StringBuilder();
+        for (Path name : path) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(name);
+        }
+        return result.toString();
+    }
+
+    /** Returns the size, modification time in nanoseconds and inode (0 where
+     *  the file system does not have them) of FILE, or null if it is not a
+     *  plain file. */
+    static long[] stat(File file) {
+        Path path = file.toPath();
+        try {
+            Map<String, Object> attrs = Files.readAttributes(path,
+                    "unix:isRegularFile,size,lastModifiedTime,ino", LinkOption.NOFOLLOW_LINKS);
+            if (!(Boolean) attrs.get("isRegularFile")) {
+                return null;
+            }
+            return new long[] { (Long) attrs.get("size"),
+                ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                (Long) attrs.get("ino") };
+        } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                return attrs.isRegularFile() ? new long[] { attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0 } : null;
+            } catch (IOException e) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
@@ -3,39 +3,70 @@ package gitlet;
 import java.io.File;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.IntStream;
 
 /**
  * Created by keeley on 7/12/2017.
  */
 public class Gitlet {
 
-    /** Returns the name of the current branch from a serializable file. */
+    /** Maximum number of files restored at once by checkoutHelper. */
+    private static final int CHECKOUT_THREADS = 8;
+
+    /** Returns the name of the current branch. */
     public static String head() {
-        return (String) deserialize(".gitlet/HEAD");
+        return Refs.head();
     }
 
-    /** Returns a Map of all initialized branches from a serializable file. Keys are branch names,
+    /** Returns a Map of all initialized branches. Keys are branch names,
      * values are the unique SHA-1 IDs of the Commit at the head of each branch. */
-    public static Map branches() {
-        return (Map) deserialize(".gitlet/branches");
+    public static Map<String, String> branches() {
+        return Refs.all();
     }
 
     /** Returns a Map representing the current staging area containing files added but not
-     * committed from a Serializable file.
-     * Keys are file names, values are BLOB objects containing the
-     * contents of the file with filename at the time of being added to the staging area.*/
-    public static Map stagingArea() {
-        return (HashMap<String, Blob>) deserialize(".gitlet/staging_area");
+     * committed, read from the index.
+     * Keys are file names, values are the SHA-1 IDs of the blobs holding the
+     * contents of each file at the time of being added to the staging area.*/
+    public static Map<String, ObjectId> stagingArea() {
+        Dirstate index = Dirstate.read();
+        Map<String, ObjectId> result = new HashMap<>();
+        for (String fileName : index.paths(Dirstate.STAGED)) {
+            result.put(fileName, index.get(fileName).id);
+        }
+        return result;
     }
 
-    /** Returns a list of currently tracked files marked for removal from a Serializable file. */
-    public static List marked() {
-        return (ArrayList<String>) deserialize(".gitlet/marked");
+    /** Returns a list of currently tracked files marked for removal, read from the index. */
+    public static List<String> marked() {
+        return Dirstate.read().paths(Dirstate.REMOVED);
     }
 
     public static void init() throws GitletException { //constant time
@@ -45,21 +76,11 @@ public class Gitlet {
                     + "already exists in the current directory.");
         }
         gitlet.mkdir();
-        File commits = new File(gitlet, "COMMITS");
-        File head = new File(gitlet, "HEAD");
-        File branches = new File(gitlet, "branches");
-        File stagingArea = new File(gitlet, "staging_area");
-        File marked = new File(gitlet, "marked");
-        File blobs = new File(gitlet, "BLOBS");
-        commits.mkdir();
-        blobs.mkdir();
+        ObjectStore.OBJECTS.mkdir();
         Commit com  = new Commit("initial commit");
-        HashMap branchesMap = new HashMap<String, String>();
-        branchesMap.put("master", com.getID());
-        Utils.writeContents(branches, serialize(branchesMap));
-        Utils.writeContents(stagingArea, serialize(new HashMap<String, Blob>()));
-        Utils.writeContents(marked, serialize(new ArrayList<String>()));
+        new Dirstate().write();
         addCommit(com);
+        Refs.update("master", null, com.getID());
         setHead("master");
     }
 
@@ -70,140 +91,322 @@ public class Gitlet {
     public static byte[] serialize(Object obj) {
         // Taken directly from spec.
         try {
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            ObjectOutputStream objectStream = new ObjectOutputStream(stream);
-            objectStream.writeObject(obj);
-            objectStream.close();
-            return stream.toByteArray();
+            return Trace.time("serialize", () -> {
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                ObjectOutputStream objectStream = new ObjectOutputStream(stream);
+                objectStream.writeObject(obj);
+                objectStream.close();
+                return stream.toByteArray();
+            });
         } catch (IOException excp) {
-            System.out.println("Internal error serializing object.");
-            return null;
+            throw new GitletException("Internal error serializing object.");
         }
     }
 
     /** Deserializes the file at PATH (i.e. converts the file's contents
-     * to an object) and returns the object. */
+     * to an object) and returns the object. Only files written by earlier
+     * versions of Gitlet are serialized objects. */
     public static Object deserialize(String path) {
         //Taken almost directly from spec.
         File inFile = new File(path);
         try {
-            ObjectInputStream inp =
-                    new ObjectInputStream(new FileInputStream(inFile));
-            return inp.readObject();
-        } catch (IOException | ClassNotFoundException excp) {
-            return null;
+            return Trace.time("deserialize", () -> {
+                try (ObjectInputStream inp =
+                        new ObjectInputStream(new FileInputStream(inFile))) {
+                    return inp.readObject();
+                } catch (ClassNotFoundException excp) {
+                    throw new IOException(excp);
+                }
+            });
+        } catch (IOException excp) {
+            throw new GitletException("Could not read " + path + ".");
         }
     }
 
-
-    public static void add(String fileName) throws GitletException {
-        File curr = new File(fileName);
-        Map<String, Blob> stagingArea = stagingArea();
-        List<String> marked = marked();
-        if (!curr.exists()) {
-            throw new GitletException("File does not exist.");
-        } else {
-            Blob newBlob = new Blob(fileName);
-            Map<String, String> snap = getCurrentCommit().getSnapshot();
-            if (snap.size() == 0) {
-                stagingArea.put(newBlob.getFileName(), newBlob);
-            }
-            for (Map.Entry<String, String> entry : snap.entrySet()) {
-                String file = entry.getKey();
-                String id = entry.getValue();
-                if (marked.contains(newBlob.getFileName())) {
-                    marked.remove(newBlob.getFileName());
-                } else if (!(snap.containsKey(newBlob.getFileName()))) {
-                    stagingArea.put(newBlob.getFileName(), newBlob);
-                } else if (newBlob.getFileName().equals(file) && newBlob.getID().equals(id)) {
-                    return;
-                } else if (newBlob.getName().equals(file) && !newBlob.getID().equals(id)) {
-                    stagingArea.put(newBlob.getFileName(), newBlob);
+    /** Deserializes BYTES, as produced by serialize, and returns the object. */
+    public static Object deserialize(byte[] bytes) {
+        try {
+            return Trace.time("deserialize", () -> {
+                ObjectInputStream inp =
+                        new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return inp.readObject();
+                } catch (ClassNotFoundException excp) {
+                    throw new IOException(excp);
                 }
-            }
+            });
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt serialized object.");
         }
+    }
+
 
-        Utils.writeContents(new File(".gitlet/staging_area"), serialize(stagingArea));
-        Utils.writeContents(new File(".gitlet/marked"), serialize(marked));
+    /** Stages the current contents of the files named by OPERANDS for
+     *  addition, or, where they are identical to their versions in the
+     *  current commit, unstages them, including any staged removal. An
+     *  operand may be a file, a directory (standing for every file beneath
+     *  it), a glob pattern, or -A, which stands for every file in the working
+     *  tree together with every tracked file that has been deleted; deleted
+     *  files are staged for removal. Files whose stat data shows them
+     *  unchanged since they were last hashed are skipped; the rest are hashed
+     *  and stored in parallel, and the index is updated in one write. */
+    public static void add(String... operands) throws GitletException {
+        Dirstate index = Dirstate.read();
+        List<String> paths = new ArrayList<>();
+        for (String path : expand(operands, index)) {
+            if (!index.unchanged(path, Dirstate.stat(new File(path)))) {
+                paths.add(path);
+            }
+        }
+        ObjectId[] ids = new ObjectId[paths.size()];
+        long[][] stats = new long[paths.size()][];
+        IntStream.range(0, paths.size()).parallel().forEach((k) -> {
+            stats[k] = Dirstate.stat(new File(paths.get(k)));
+            if (stats[k] != null) {
+                ids[k] = ObjectId.fromHex(Blob.store(paths.get(k)).getID());
+            }
+        });
 
+        Map<String, ObjectId> snap = getCurrentCommit().getSnapshot();
+        List<String> changed = new ArrayList<>();
+        for (int k = 0; k < ids.length; k += 1) {
+            String path = paths.get(k);
+            ObjectId tracked = snap.get(path);
+            Dirstate.Entry entry = index.get(path);
+            if (ids[k] == null && tracked != null) {
+                index.put(path, Dirstate.REMOVED, tracked, null);
+            } else if (ids[k] == null && entry != null) {
+                index.remove(path);
+            } else if (ids[k] == null) {
+                continue;
+            } else if (ids[k].equals(tracked)) {
+                index.put(path, Dirstate.TRACKED, ids[k], stats[k]);
+            } else {
+                index.put(path, Dirstate.STAGED, ids[k], stats[k]);
+            }
+            changed.add(path);
+        }
+        index.append(changed);
     }
 
+    /** Returns the paths named by the add operands OPERANDS, in sorted order,
+     *  using INDEX to find tracked files that have been deleted. Throws a
+     *  GitletException if an operand names no file. */
+    private static SortedSet<String> expand(String[] operands, Dirstate index) {
+        SortedSet<String> result = new TreeSet<>();
+        List<String> working = null;
+        for (String operand : operands) {
+            File file = new File(operand);
+            if (file.isFile()) {
+                result.add(Dirstate.toPath(file.toPath()));
+                continue;
+            }
+            if (working == null) {
+                working = Dirstate.workingFiles();
+            }
+            int size = result.size();
+            if (operand.equals("-A")) {
+                result.addAll(working);
+                for (Map.Entry<String, Dirstate.Entry> item : index.entries().entrySet()) {
+                    if (item.getValue().state != Dirstate.REMOVED
+                            && !new File(item.getKey()).isFile()) {
+                        result.add(item.getKey());
+                    }
+                }
+                continue;
+            } else if (file.isDirectory()) {
+                String dir = Dirstate.toPath(file.toPath());
+                for (String path : working) {
+                    if (dir.isEmpty() || path.startsWith(dir + "/")) {
+                        result.add(path);
+                    }
+                }
+            } else if (operand.matches(".*[*?\\[{].*")) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + operand);
+                for (String path : working) {
+                    if (matcher.matches(Paths.get(path))) {
+                        result.add(path);
+                    }
+                }
+            }
+            if (result.size() == size && !file.isDirectory()) {
+                throw new GitletException("File does not exist.");
+            }
+        }
+        return result;
+    }
 
+    /** Unstages FILENAME if it is staged for addition and, if it is tracked
+     *  by the current commit, stages it for removal and deletes it from the
+     *  working directory. */
     public static void remove(String fileName) throws GitletException { //theta(1)
-        Map<String, String> snap = getCurrentCommit().getSnapshot();
-        Map<String, Blob> stagingArea = stagingArea();
-        List<String> marked = marked();
+        fileName = Dirstate.toPath(Paths.get(fileName));
+        Map<String, ObjectId> snap = getCurrentCommit().getSnapshot();
+        Dirstate index = Dirstate.read();
+        Dirstate.Entry entry = index.get(fileName);
 
-        if (!snap.containsKey(fileName) && !stagingArea.containsKey(fileName)) {
+        if (snap.containsKey(fileName)) {
+            index.put(fileName, Dirstate.REMOVED, snap.get(fileName), null);
+            deleteFile(fileName);
+        } else if (entry != null && entry.state == Dirstate.STAGED) {
+            index.remove(fileName);
+        } else {
             throw new GitletException("No reason to remove the file.");
-
-        } else if (snap.containsKey(fileName) && stagingArea.containsKey(fileName)) {
-            marked.add(fileName);
-            stagingArea.remove(fileName);
-            Utils.restrictedDelete(fileName);
-
-        } else if (stagingArea.containsKey(fileName)) {
-            stagingArea.remove(fileName);
-
-
-        } else if (snap.containsKey(fileName)) {
-            marked.add(fileName);
-            Utils.restrictedDelete(fileName);
-
         }
-
-
-        Utils.writeContents(new File(".gitlet/staging_area"), serialize(stagingArea));
-        Utils.writeContents(new File(".gitlet/marked"), serialize(marked));
-
-
+        index.append(fileName);
     }
 
     /** Prints the ID, timestamp, and message of each commit from the current head
      * to the initial commit in order. */
     public static void log() {
-        String currID = getBranchHeadCommitID(head());
-        while (!currID.equals("0")) {
-            Commit c = getCommit(currID);
-            System.out.println("===");
-            System.out.println("Commit " + currID);
-            System.out.println(c.getTime());
-            System.out.println(c.getLog());
-            System.out.println();
-            currID = c.getParentID();
+        PrintWriter out = bufferedOutput();
+        int pos = CommitGraph.position(getBranchHeadCommitID(head()));
+        while (pos != CommitGraph.NONE) {
+            printLogEntry(out, pos);
+            pos = CommitGraph.parent(pos);
         }
+        out.flush();
     }
 
-    public static void globalLog() {
-        String[] commits = (new File(".gitlet/COMMITS")).list();
-        for (String id : commits) {
-            Commit c = getCommit(id);
-            System.out.println("===");
-            System.out.println("Commit " + id);
-            System.out.println(c.getTime());
-            System.out.println(c.getLog());
-            System.out.println();
+    /** Prints the log entries, as for log, of just those commits that
+     *  changed the file or directory PATH from their first parents. The
+     *  snapshots of a commit and its parent are compared only if its
+     *  changed-path filter admits PATH. */
+    public static void log(String path) {
+        String target = Dirstate.toPath(Paths.get(path));
+        ChangedPaths.update();
+        PrintWriter out = bufferedOutput();
+        int pos = CommitGraph.position(getBranchHeadCommitID(head()));
+        while (pos != CommitGraph.NONE) {
+            int parent = CommitGraph.parent(pos);
+            if (ChangedPaths.mayChange(pos, target)) {
+                ObjectId now = Tree.entry(getCommit(CommitGraph.id(pos)).getTree(), target);
+                ObjectId before = parent == CommitGraph.NONE ? null
+                    : Tree.entry(getCommit(CommitGraph.id(parent)).getTree(), target);
+                if (!isSameContent(now, before)) {
+                    printLogEntry(out, pos);
+                }
+            }
+            pos = parent;
         }
+        out.flush();
     }
 
+    /** Prints the ID, timestamp, and message of every commit ever made,
+     *  newest first. OPTIONS may contain "--limit N" to print only the first
+     *  N, "--since TIME" and "--until TIME" to print only those made at or
+     *  after and at or before TIME, given as yyyy-MM-dd or yyyy-MM-dd
+     *  HH:mm:ss, and "--reverse" to print oldest first. */
+    public static void globalLog(String... options) throws GitletException {
+        int limit = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        boolean reverse = false;
+        for (int k = 0; k < options.length; k += 1) {
+            String option = options[k];
+            if (option.equals("--reverse")) {
+                reverse = true;
+                continue;
+            } else if (k + 1 == options.length) {
+                throw new GitletException("Incorrect operands.");
+            }
+            k += 1;
+            if (option.equals("--limit")) {
+                try {
+                    limit = Integer.parseInt(options[k]);
+                } catch (NumberFormatException excp) {
+                    throw new GitletException("Incorrect operands.");
+                }
+                if (limit < 1) {
+                    throw new GitletException("Incorrect operands.");
+                }
+            } else if (option.equals("--since")) {
+                since = parseTime(options[k], false);
+            } else if (option.equals("--until")) {
+                until = parseTime(options[k], true);
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+        }
+
+        int first = CommitGraph.timeRank(since);
+        int end = until == Long.MAX_VALUE ? CommitGraph.count() : CommitGraph.timeRank(until + 1);
+        PrintWriter out = bufferedOutput();
+        for (int k = 0; k < Math.min(limit, end - first); k += 1) {
+            printLogEntry(out, CommitGraph.byTime(reverse ? first + k : end - 1 - k));
+        }
+        out.flush();
+    }
+
+    /** Returns TIME, given as yyyy-MM-dd HH:mm:ss or as yyyy-MM-dd, in the
+     *  seconds CommitGraph.timestamp uses. A date alone means the start of
+     *  that day, or its end if END. */
+    private static long parseTime(String time, boolean end) throws GitletException {
+        try {
+            if (time.length() == "yyyy-MM-dd".length()) {
+                time += end ? " 23:59:59" : " 00:00:00";
+            }
+            return LocalDateTime.parse(time, CommitGraph.TIME_FORMAT).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException excp) {
+            throw new GitletException("Times must be given as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss.");
+        }
+    }
+
+    /** Returns a writer that buffers what is written to the standard output
+     *  until flushed. */
+    private static PrintWriter bufferedOutput() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+    }
+
+    /** Prints the log entry of the commit at position POS of the commit
+     *  graph to OUT. */
+    private static void printLogEntry(PrintWriter out, int pos) {
+        out.println("===");
+        out.println("Commit " + CommitGraph.id(pos));
+        out.println(CommitGraph.time(pos));
+        out.println(CommitGraph.message(pos));
+        out.println();
+    }
+
+    /** Prints the IDs of all commits whose log message is COMMITMESSAGE. */
     public static void find(String commitMessage) throws GitletException {
-        Boolean exist = false;
-        String[] commits = (new File(".gitlet/COMMITS")).list();
-        for (String id : commits) {
-            if (getCommit(id).getLog().equals(commitMessage)) {
-                System.out.println(id);
-                exist = true;
+        printFound(MessageIndex.exact(commitMessage));
+    }
+
+    /** Prints the IDs of all commits whose log messages match TEXT, which
+     *  is a substring of the message if MODE is "--contains" and a regular
+     *  expression matching part of it if MODE is "--regex". */
+    public static void find(String mode, String text) throws GitletException {
+        if (mode.equals("--contains")) {
+            printFound(MessageIndex.containing(text));
+        } else if (mode.equals("--regex")) {
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(text);
+            } catch (PatternSyntaxException excp) {
+                throw new GitletException("Invalid regular expression.");
             }
+            printFound(MessageIndex.matching(pattern));
+        } else {
+            throw new GitletException("Incorrect operands.");
         }
-        if (!exist) {
+    }
+
+    /** Prints the IDs of the commits at the graph positions FOUND. */
+    private static void printFound(List<Integer> found) throws GitletException {
+        if (found.isEmpty()) {
             throw new GitletException("Found no commit with that message.");
         }
+        for (int pos : found) {
+            System.out.println(CommitGraph.id(pos));
+        }
     }
 
     public static void status() {
         System.out.println("=== Branches ===");
+        String head = head();
         branches().keySet().stream().sorted().forEach((branch) -> {
-            if (branch.equals(head())) {
+            if (branch.equals(head)) {
                 System.out.println("*" + branch);
             } else {
                 System.out.println(branch);
@@ -211,20 +414,240 @@ public class Gitlet {
         });
         System.out.println();
 
+        Dirstate index = Dirstate.read();
         System.out.println("=== Staged Files ===");
-        stagingArea().keySet().stream().sorted().forEach((stagedFile) ->
-                System.out.println(stagedFile));
+        index.paths(Dirstate.STAGED).forEach(System.out::println);
         System.out.println();
 
         System.out.println("=== Removed Files ===");
-        marked().stream().sorted().forEach((toRemove) ->
-                System.out.println(toRemove));
+        index.paths(Dirstate.REMOVED).forEach(System.out::println);
         System.out.println();
+
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, Dirstate.Entry> item : index.entries().entrySet()) {
+            Dirstate.Entry entry = item.getValue();
+            if (entry.state == Dirstate.REMOVED) {
+                continue;
+            }
+            ObjectId id = index.currentID(new File(item.getKey()), entry, entry.id);
+            if (id == null) {
+                System.out.println(item.getKey() + " (deleted)");
+            } else if (!id.equals(entry.id)) {
+                System.out.println(item.getKey() + " (modified)");
+            }
+        }
         System.out.println();
+
         System.out.println("=== Untracked Files ===");
+        for (String fileName : Dirstate.workingFiles()) {
+            Dirstate.Entry entry = index.get(fileName);
+            if (entry == null || entry.state == Dirstate.REMOVED) {
+                System.out.println(fileName);
+            }
+        }
         System.out.println();
+        index.writeIfRefreshed();
+    }
+
+    /** Prints the differences between two versions of the tracked files,
+     *  as a unified diff of each changed file or, if OPTIONS includes
+     *  --stat, as a count of the lines each gained and lost. With no
+     *  commits among OPTIONS, compares the staged versions with the working
+     *  files, or with --cached, the current commit with the staged
+     *  versions; given one commit, compares it with the working files (or
+     *  with --cached, the staged versions), and given two, compares them.
+     *  Files whose blob IDs are the same in both versions are passed over
+     *  without reading their contents, and working files are rehashed only
+     *  if their stat data has changed. Files larger than Diff.MAX_SIZE are
+     *  listed as binary without being read. */
+    public static void diff(String... options) {
+        boolean stat = false;
+        boolean cached = false;
+        List<Commit> commits = new ArrayList<>();
+        for (String option : options) {
+            if (option.equals("--stat")) {
+                stat = true;
+            } else if (option.equals("--cached")) {
+                cached = true;
+            } else if (option.startsWith("--") || commits.size() == 2) {
+                throw new GitletException("Incorrect operands.");
+            } else {
+                Commit c = getCommit(option);
+                if (c == null) {
+                    throw new GitletException("No commit with that id exists.");
+                }
+                commits.add(c);
+            }
+        }
+        if (cached && commits.size() == 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        Dirstate index = Dirstate.read();
+        Map<String, ObjectId> staged = new HashMap<>();
+        for (Map.Entry<String, Dirstate.Entry> item : index.entries().entrySet()) {
+            if (item.getValue().state != Dirstate.REMOVED) {
+                staged.put(item.getKey(), item.getValue().id);
+            }
+        }
+        Map<String, ObjectId> before;
+        Map<String, ObjectId> after;
+        boolean working = !cached && commits.size() < 2;
+        if (commits.size() == 2) {
+            before = commits.get(0).getSnapshot();
+            after = commits.get(1).getSnapshot();
+        } else {
+            before = !commits.isEmpty() ? commits.get(0).getSnapshot()
+                : cached ? getCurrentCommit().getSnapshot() : staged;
+            after = staged;
+            if (working) {
+                after = new HashMap<>();
+                for (Map.Entry<String, ObjectId> item : staged.entrySet()) {
+                    String path = item.getKey();
+                    ObjectId id = index.currentID(new File(path), index.get(path), item.getValue());
+                    if (id != null) {
+                        after.put(path, id);
+                    }
+                }
+            }
+        }
+
+        TreeSet<String> changed = new TreeSet<>();
+        for (Map.Entry<String, ObjectId> item : before.entrySet()) {
+            if (!item.getValue().equals(after.get(item.getKey()))) {
+                changed.add(item.getKey());
+            }
+        }
+        for (String path : after.keySet()) {
+            if (!before.containsKey(path)) {
+                changed.add(path);
+            }
+        }
+        OutputStream out = new BufferedOutputStream(System.out, ObjectStore.BUFFER_SIZE);
+        List<String[]> stats = new ArrayList<>();
+        try {
+            for (String path : changed) {
+                ObjectId oldID = before.get(path);
+                ObjectId newID = after.get(path);
+                long oldSize = oldID == null ? 0 : ObjectStore.size(oldID.name());
+                long newSize = newID == null ? 0
+                    : working ? new File(path).length() : ObjectStore.size(newID.name());
+                Diff.Lines a = null;
+                Diff.Lines b = null;
+                if (oldSize <= Diff.MAX_SIZE && newSize <= Diff.MAX_SIZE) {
+                    byte[] empty = new byte[0];
+                    a = new Diff.Lines(oldID == null ? empty : getBlobContents(oldID));
+                    b = new Diff.Lines(newID == null ? empty
+                        : working ? Utils.readContents(new File(path)) : getBlobContents(newID));
+                }
+                if (a == null || a.isBinary() || b.isBinary()) {
+                    if (stat) {
+                        stats.add(new String[] { path, "Bin " + oldSize + " -> "
+                            + newSize + " bytes" });
+                    } else {
+                        printDiffHeader(out, path, oldID, newID, false);
+                        out.write(("Binary files " + (oldID == null ? "/dev/null" : "a/" + path)
+                            + " and " + (newID == null ? "/dev/null" : "b/" + path)
+                            + " differ\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                    continue;
+                }
+                Diff.number(a, b);
+                List<Diff.Hunk> hunks = Diff.diff(a.ids, b.ids);
+                if (stat) {
+                    int deleted = 0;
+                    int inserted = 0;
+                    for (Diff.Hunk hunk : hunks) {
+                        deleted += hunk.aEnd - hunk.aStart;
+                        inserted += hunk.bEnd - hunk.bStart;
+                    }
+                    stats.add(new String[] { path, Integer.toString(inserted),
+                        Integer.toString(deleted) });
+                } else {
+                    printDiffHeader(out, path, oldID, newID, true);
+                    Diff.unified(a, b, hunks, out);
+                }
+            }
+            if (stat) {
+                printDiffStat(out, stats);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new GitletException("Could not write differences.");
+        }
+        index.writeIfRefreshed();
+    }
 
+    /** Writes to OUT the header of the differences in PATH between the
+     *  blobs OLDID and NEWID, either of which is null if the file is
+     *  absent, including the names of the versions if NAMES. */
+    private static void printDiffHeader(OutputStream out, String path, ObjectId oldID,
+                                        ObjectId newID, boolean names) throws IOException {
+        StringBuilder header = new StringBuilder();
+        header.append("diff --gitlet a/").append(path).append(" b/").append(path).append("\n");
+        if (oldID == null) {
+            header.append("new file\n");
+        } else if (newID == null) {
+            header.append("deleted file\n");
+        }
+        if (names) {
+            header.append("--- ").append(oldID == null ? "/dev/null" : "a/" + path).append("\n");
+            header.append("+++ ").append(newID == null ? "/dev/null" : "b/" + path).append("\n");
+        }
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Widest bar of '+' and '-' signs printed by diff --stat. */
+    private static final int STAT_WIDTH = 40;
+
+    /** Writes to OUT a line for each of STATS, which holds the path of a
+     *  file and either its numbers of inserted and deleted lines or a
+     *  description of a binary change, followed by a summary. */
+    private static void printDiffStat(OutputStream out, List<String[]> stats) throws IOException {
+        int nameWidth = 0;
+        int countWidth = 0;
+        int most = 0;
+        long inserted = 0;
+        long deleted = 0;
+        for (String[] item : stats) {
+            nameWidth = Math.max(nameWidth, item[0].length());
+            if (item.length == 3) {
+                int total = Integer.parseInt(item[1]) + Integer.parseInt(item[2]);
+                countWidth = Math.max(countWidth, Integer.toString(total).length());
+                most = Math.max(most, total);
+                inserted += Integer.parseInt(item[1]);
+                deleted += Integer.parseInt(item[2]);
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        for (String[] item : stats) {
+            text.append(' ').append(item[0]);
+            text.append(" ".repeat(nameWidth - item[0].length())).append(" | ");
+            if (item.length == 2) {
+                text.append(item[1]).append("\n");
+                continue;
+            }
+            int plus = Integer.parseInt(item[1]);
+            int minus = Integer.parseInt(item[2]);
+            String total = Integer.toString(plus + minus);
+            text.append(" ".repeat(countWidth - total.length())).append(total);
+            if (most > STAT_WIDTH) {
+                int bar = Math.max(plus + minus > 0 ? 1 : 0,
+                    (int) ((long) (plus + minus) * STAT_WIDTH / most));
+                plus = plus == 0 ? 0 : Math.max(1, (int) ((long) bar * plus / (plus + minus)));
+                minus = Math.max(0, bar - plus);
+            }
+            if (plus + minus > 0) {
+                text.append(' ');
+            }
+            text.append("+".repeat(plus)).append("-".repeat(minus)).append("\n");
+        }
+        if (!stats.isEmpty()) {
+            text.append(' ').append(stats.size()).append(stats.size() == 1 ? " file" : " files")
+                .append(" changed, ").append(inserted)
+                .append(inserted == 1 ? " insertion(+), " : " insertions(+), ")
+                .append(deleted).append(deleted == 1 ? " deletion(-)\n" : " deletions(-)\n");
+        }
+        out.write(text.toString().getBytes(StandardCharsets.UTF_8));
     }
 
     /** Puts the version of FILENAME from the head Commit in the working directory.
@@ -232,7 +655,7 @@ public class Gitlet {
      * @param fileName : the SHA-1 ID of the desired file.
      */
     public static void checkoutFile(String fileName) {
-        String commitID = (String) branches().get(head());
+        String commitID = getBranchHeadCommitID(head());
         checkoutFileFromCommit(commitID, fileName);
     }
 
@@ -242,23 +665,21 @@ public class Gitlet {
         if (c == null) {
             throw new GitletException("No commit with that id exists.");
         }
-        String blobName = c.getSnapshot().get(fileName);
+        ObjectId blobName = c.getFile(Dirstate.toPath(Paths.get(fileName)));
         if (blobName == null) {
             throw new GitletException("File does not exist in that commit.");
         }
         File checkedOut = new File(fileName);
-        Blob b = getBlob(blobName);
-        Utils.writeContents(checkedOut, b.getContents());
+        ObjectStore.copyTo(blobName.name(), checkedOut);
     }
 
     public static void checkoutBranch(String branchName) throws GitletException {
-        Map branches = branches();
-        if (!branches.containsKey(branchName)) {
+        String headCommitID = getBranchHeadCommitID(branchName);
+        if (headCommitID == null) {
             throw new GitletException("No such branch exists.");
         } else if (branchName.equals(head())) {
             throw new GitletException("No need to checkout the current branch.");
         } else {
-            String headCommitID = (String) branches.get(branchName);
             checkoutHelper(getCommit(headCommitID));
             setHead(branchName);
         }
@@ -272,25 +693,24 @@ public class Gitlet {
      * @param branchName: the name of the new branch.
      */
     public static void branch(String branchName) throws GitletException {
-        Map branches = branches();
-        if (branches.containsKey(branchName)) {
+        if (getBranchHeadCommitID(branchName) != null) {
             throw new GitletException("A branch with that name already exists.");
+        } else if (!Refs.isValidName(branchName)) {
+            throw new GitletException("Invalid branch name.");
         } else {
-            branches.put(branchName, getBranchHeadCommitID(head()));
-            Utils.writeContents(new File(".gitlet/branches"), serialize(branches));
+            Refs.update(branchName, null, getBranchHeadCommitID(head()));
         }
     }
 
     /** Delete the branch BRANCHNAME. If no such branch exists, exits. */
     public static void rmBranch(String branchName) throws GitletException {
-        Map branches = branches();
-        if (!branches.containsKey(branchName)) {
+        String commitID = getBranchHeadCommitID(branchName);
+        if (commitID == null) {
             throw new GitletException("A branch with that name does not exist.");
         } else if (branchName.equals(head())) {
             throw new GitletException("Cannot remove the current branch.");
         } else {
-            branches.remove(branchName);
-            Utils.writeContents(new File(".gitlet/branches"), serialize(branches));
+            Refs.delete(branchName, commitID);
         }
     }
 
@@ -299,50 +719,100 @@ public class Gitlet {
         if (c == null) {
             throw new GitletException("No commit with that id exists.");
         }
+        String oldID = getBranchHeadCommitID(head());
         checkoutHelper(c);
-        Map updatedBranches = branches();
-        updatedBranches.put(head(), commitID);
-        Utils.writeContents(new File(".gitlet/branches"), serialize(updatedBranches));
+        setBranch(oldID, c.getID());
 
     }
+    /** Makes the working directory and the index match the snapshot of
+     *  commit C. Only paths whose blobs differ from the current commit's are
+     *  rewritten, unless the stat data of a file does not show it to be
+     *  unmodified, and the files to write are restored in parallel by at most
+     *  CHECKOUT_THREADS threads. If GITLET_VERBOSE is set in the environment,
+     *  reports the number of files written, deleted and skipped on the
+     *  standard error. */
     public static void checkoutHelper(Commit c) throws GitletException {
-        Map currSnapshot = getCurrentCommit().getSnapshot();
-        Set currSnapFiles = currSnapshot.keySet();
-        Map resetSnapshot = c.getSnapshot();
-        Set resetSnapFiles = resetSnapshot.keySet();
+        Map<String, ObjectId> currSnapshot = getCurrentCommit().getSnapshot();
+        Map<String, ObjectId> resetSnapshot = c.getSnapshot();
         checkUntrackedFiles(resetSnapshot);
-        for (Object fileName : resetSnapFiles) {
-            File checkedOut = new File((String) fileName);
-            Blob b = getBlob((String) resetSnapshot.get(fileName));
-            Utils.writeContents(checkedOut, b.getContents());
+        Dirstate index = Dirstate.read();
+        List<String> toWrite = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> item : resetSnapshot.entrySet()) {
+            String path = item.getKey();
+            Dirstate.Entry entry = index.get(path);
+            if (!item.getValue().equals(currSnapshot.get(path)) || entry == null
+                    || entry.state != Dirstate.TRACKED || !entry.id.equals(item.getValue())
+                    || !index.unchanged(path, Dirstate.stat(new File(path)))) {
+                toWrite.add(path);
+            }
+        }
+        int deleted = 0;
+        for (String path : currSnapshot.keySet()) {
+            if (!resetSnapshot.containsKey(path)) {
+                deleteFile(path);
+                deleted += 1;
+            }
         }
-        currSnapFiles.removeAll(resetSnapFiles);
-        for (Object file : currSnapFiles) {
-            Utils.restrictedDelete((String) file);
+        Trace.time("restore", () -> restore(toWrite, resetSnapshot));
+        index.reset(resetSnapshot, toWrite);
+        index.write();
+        if (Main.getenv("GITLET_VERBOSE") != null) {
+            System.err.printf("checkout: %d written, %d deleted, %d skipped%n", toWrite.size(),
+                    deleted, resetSnapshot.size() - toWrite.size());
         }
-        Map stagingArea = stagingArea();
-        stagingArea.clear();
-        Utils.writeContents(new File(".gitlet/staging_area"), serialize(stagingArea));
     }
 
+    /** Writes each of PATHS from the blob SNAPSHOT maps it to, using up to
+     *  CHECKOUT_THREADS threads. */
+    private static void restore(List<String> paths, Map<String, ObjectId> snapshot) {
+        if (paths.size() <= 1) {
+            for (String path : paths) {
+                ObjectStore.copyTo(snapshot.get(path).name(), new File(path));
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(CHECKOUT_THREADS, paths.size()));
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (String path : paths) {
+                results.add(pool.submit(() ->
+                        ObjectStore.copyTo(snapshot.get(path).name(), new File(path))));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new GitletException("Could not check out files.");
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new GitletException("Could not check out files.");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
     public static void merge(String otherBranch) throws GitletException {
-        if (stagingArea().size() != 0 || marked().size() != 0) {
+        Dirstate index = Dirstate.read();
+        if (index.hasChanges()) {
             throw new GitletException("You have uncommitted "
                     + "changes.");
         }
-        if (!branches().keySet().contains(otherBranch)) { //Check if branchName exists
+        if (getBranchHeadCommitID(otherBranch) == null) { //Check if branchName exists
             throw new GitletException("A branch with that name does not exist.");
         }
         if (otherBranch.equals(head())) { //Check if branchName is current branch
             throw new GitletException("Cannot merge a branch with itself.");
         }
         Commit currCommit = getCurrentCommit();
-        Map currSnap = currCommit.getSnapshot();
+        Map<String, ObjectId> currSnap = currCommit.getSnapshot();
         Commit otherCommit = getCommit(getBranchHeadCommitID(otherBranch));
-        Map otherSnap = otherCommit.getSnapshot();
+        Map<String, ObjectId> otherSnap = otherCommit.getSnapshot();
         Commit splitPoint = getSplitPoint(currCommit.getID(), otherCommit.getID());
-        Map splitPointSnap = splitPoint.getSnapshot();
+        Map<String, ObjectId> splitPointSnap = splitPoint.getSnapshot();
 
         checkUntrackedFiles(otherSnap);
         if (otherCommit.getID().equals(splitPoint.getID())) {
@@ -354,56 +824,131 @@ public class Gitlet {
             System.out.print("Current branch fast-forwarded.");
             return;
         }
-        Map superSnap = new HashMap(currSnap);
+        Map<String, ObjectId> superSnap = new HashMap<>(currSnap);
         superSnap.putAll(otherSnap);
         superSnap.putAll(splitPointSnap);
-        Set allTrackedFiles = superSnap.keySet();
-        Map stagingArea = stagingArea();
+        Set<String> allTrackedFiles = superSnap.keySet();
         boolean mergeConflict = false;
-        for (Object file : allTrackedFiles) {
-            String currSHA = (String) currSnap.get(file);
-            String otherSHA = (String) otherSnap.get(file);
-            String splitPointSHA = (String) splitPointSnap.get(file);
+        for (String file : allTrackedFiles) {
+            ObjectId currSHA = currSnap.get(file);
+            ObjectId otherSHA = otherSnap.get(file);
+            ObjectId splitPointSHA = splitPointSnap.get(file);
 
             if (isSameContent(currSHA, splitPointSHA) && !isSameContent(currSHA, otherSHA)) {
                 if (otherSHA == null) {
-                    remove((String) file);
+                    index.put(file, Dirstate.REMOVED, currSHA, null);
+                    deleteFile(file);
                 } else {
-                    checkoutFileFromCommit(otherCommit.getID(), (String) file);
-                    stagingArea.put(file, getBlob(otherSHA));
+                    checkoutFileFromCommit(otherCommit.getID(), file);
+                    index.put(file, Dirstate.STAGED, otherSHA,
+                            Dirstate.stat(new File(file)));
                 }
             } else if (!isSameContent(currSHA, splitPointSHA) && !isSameContent(currSHA, otherSHA)
                     && !isSameContent(otherSHA, splitPointSHA)) {
-                mergeConflict = true;
-                File currFile = new File((String) file);
-                String headStr = "<<<<<<< HEAD\n";
-                String currContents = (currSHA != null)
-                        ? new String(getBlob(currSHA).getContents(), StandardCharsets.UTF_8)
-                        : "";
-                String sepStr = "=======\n";
-                String otherContents = (otherSHA != null)
-                        ? new String(getBlob(otherSHA).getContents(), StandardCharsets.UTF_8)
-                        : "";
-                String endStr = ">>>>>>>\n";
-                String allContents = headStr + currContents + sepStr + otherContents + endStr;
-
-                Utils.writeContents(currFile, allContents.getBytes(StandardCharsets.UTF_8));
-            }
-        }
-        Utils.writeContents(new File(".gitlet/staging_area"), serialize(stagingArea));
+                String path = file;
+                if (mergeFile(path, splitPointSHA, currSHA, otherSHA)) {
+                    mergeConflict = true;
+                } else {
+                    Blob merged = Blob.store(path);
+                    index.put(path, Dirstate.STAGED, ObjectId.fromHex(merged.getID()),
+                            Dirstate.stat(new File(path)));
+                }
+            }
+        }
+        index.write();
         if (mergeConflict) {
             System.out.println("Encountered a merge conflict.");
         } else {
             String message = "Merged " + head() + " with " + otherBranch + ".";
-            commit(message);
+            commit(message, otherCommit.getID());
         }
     }
 
-    /** Compares two Strings A and B (one of both of which may be null).
+    /** Writes to the working file PATH the result of merging the changes
+     *  from the version with blob ID BASE to the versions OURS and THEIRS,
+     *  any of which may be null if the file is absent. Returns true iff the
+     *  changes conflict; the file then holds the conflicting versions between
+     *  markers, wholly if either side removed the file or any version is
+     *  larger than Diff.MAX_SIZE. Whole versions are streamed from the
+     *  store rather than read into memory. The result is written to a
+     *  temporary file and then moved into place, recreating the file's
+     *  directory if need be, so that a failure leaves no partial file. */
+    private static boolean mergeFile(String path, ObjectId base, ObjectId ours,
+                                     ObjectId theirs) {
+        File tmp = new File(".gitlet/tmp_merge");
+        File dest = new File(path);
+        try {
+            boolean conflict;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                if (ours == null || theirs == null
+                        || isLarge(base) || isLarge(ours) || isLarge(theirs)) {
+                    out.write(Diff.OURS.getBytes(StandardCharsets.UTF_8));
+                    copyBlob(ours, out);
+                    out.write(Diff.SEPARATOR.getBytes(StandardCharsets.UTF_8));
+                    copyBlob(theirs, out);
+                    out.write(Diff.THEIRS.getBytes(StandardCharsets.UTF_8));
+                    conflict = true;
+                } else {
+                    conflict = Diff.merge(base == null ? new byte[0] : getBlobContents(base),
+                        getBlobContents(ours), getBlobContents(theirs), out);
+                }
+            }
+            File parent = dest.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return conflict;
+        } catch (IOException excp) {
+            throw new GitletException("Could not write " + path + ".");
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Returns true iff ID is the ID of a blob too large to compare line by
+     *  line. ID may be null. */
+    private static boolean isLarge(ObjectId id) {
+        return id != null && ObjectStore.size(id.name()) > Diff.MAX_SIZE;
+    }
+
+    /** Copies the contents of the blob ID, if ID is not null, to OUT. */
+    private static void copyBlob(ObjectId id, OutputStream out) throws IOException {
+        if (id == null) {
+            return;
+        }
+        InputStream in = ObjectStore.open(id.name(), ObjectStore.BLOB);
+        if (in == null) {
+            throw new GitletException("No blob " + id + ".");
+        }
+        try (InputStream body = in) {
+            body.transferTo(out);
+        }
+    }
+
+    /** Deletes the working file at PATH, and then any directories that
+     *  deleting it leaves empty, short of the working directory itself. */
+    private static void deleteFile(String path) {
+        if (!new File(".gitlet").isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File file = new File(path);
+        if (!file.isDirectory()) {
+            file.delete();
+        }
+        for (File dir = file.getParentFile(); dir != null; dir = dir.getParentFile()) {
+            String[] rest = dir.list();
+            if (rest == null || rest.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+
+    /** Compares two IDs A and B (one of both of which may be null).
      * Returns true iff A and B are both null or A and B both reference
-     * identical Strings.
+     * identical IDs.
      */
-    public static boolean isSameContent(String a, String b) {
+    public static boolean isSameContent(ObjectId a, ObjectId b) {
         if (a == null) {
             return a == b;
         } else {
@@ -412,23 +957,121 @@ public class Gitlet {
     }
 
     /** Returns the Commit at the split point of two Commits with IDs A and B
-     * (i.e. the most recent common ancestor of A and B).
-
+     * (i.e. the most recent common ancestor of A and B). Walks back from
+     * both through first and second parents alike, always visiting the
+     * commit of largest generation number next, so that every commit is
+     * reached from both sides before any of its ancestors are; a commit so
+     * reached is a common ancestor, and its own ancestors are of no further
+     * interest. Of several such candidates, as after criss-cross merges,
+     * ancestors of other candidates are discarded, and then the one of
+     * largest generation (and then the latest) is chosen.
      */
     public static Commit getSplitPoint(String current, String notCurrent) throws GitletException {
-        HashSet<String> seen = new HashSet<String>();
-        while (!current.equals("0")) {
-            if (!seen.add(current)) {
-                return getCommit(current);
+        int a = CommitGraph.position(current);
+        int b = CommitGraph.position(notCurrent);
+        List<Integer> candidates = commonAncestors(a, b);
+        for (int k = candidates.size() - 1; k >= 0 && candidates.size() > 1; k -= 1) {
+            List<Integer> others = new ArrayList<>(candidates);
+            others.remove(k);
+            if (reaches(others, candidates.get(k))) {
+                candidates.remove(k);
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new GitletException("Reached initial commit without finding split point.");
+        }
+        int best = candidates.get(0);
+        for (int c : candidates) {
+            if (CommitGraph.generation(c) > CommitGraph.generation(best)
+                || CommitGraph.generation(c) == CommitGraph.generation(best)
+                   && CommitGraph.timestamp(c) > CommitGraph.timestamp(best)) {
+                best = c;
+            }
+        }
+        return getCommit(CommitGraph.id(best));
+    }
+
+    /** Flags marking commits during a search for split points: reached
+     *  from the first commit, reached from the second, an ancestor of a
+     *  common ancestor, and a common ancestor already found. */
+    private static final int FROM_A = 1, FROM_B = 2, STALE = 4, FOUND = 8;
+
+    /** Returns the positions of the common ancestors of the commits at
+     *  positions A and B that are not ancestors of a common ancestor found
+     *  earlier in the walk. May include ancestors of one another when the
+     *  history holds merges. */
+    private static List<Integer> commonAncestors(int a, int b) {
+        List<Integer> result = new ArrayList<>();
+        if (a == CommitGraph.NONE || b == CommitGraph.NONE) {
+            return result;
+        }
+        byte[] flags = new byte[CommitGraph.count()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Gitlet::byGeneration);
+        flags[a] |= FROM_A;
+        flags[b] |= FROM_B;
+        queue.add(a);
+        if (b != a) {
+            queue.add(b);
+        }
+        while (hasLive(queue, flags)) {
+            int pos = queue.remove();
+            int marks = flags[pos] & (FROM_A | FROM_B | STALE);
+            if ((marks & (FROM_A | FROM_B)) == (FROM_A | FROM_B)) {
+                if ((flags[pos] & (STALE | FOUND)) == 0) {
+                    flags[pos] |= FOUND;
+                    result.add(pos);
+                }
+                marks |= STALE;
             }
-            current = getCommit(current).getParentID();
-            if (!notCurrent.equals("0")) {
-                String temp = current;
-                current = notCurrent;
-                notCurrent = temp;
+            for (int p : new int[] { CommitGraph.parent(pos), CommitGraph.secondParent(pos) }) {
+                if (p != CommitGraph.NONE && (flags[p] & marks) != marks) {
+                    flags[p] |= marks;
+                    queue.add(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Orders commit positions X and Y by decreasing generation number, and
+     *  then by decreasing position, so that a commit always precedes its
+     *  ancestors. */
+    private static int byGeneration(int x, int y) {
+        int cmp = Integer.compare(CommitGraph.generation(y), CommitGraph.generation(x));
+        return cmp != 0 ? cmp : Integer.compare(y, x);
+    }
+
+    /** Returns true iff QUEUE holds a commit that is not yet known, by
+     *  FLAGS, to be an ancestor of a common ancestor. */
+    private static boolean hasLive(PriorityQueue<Integer> queue, byte[] flags) {
+        for (int pos : queue) {
+            if ((flags[pos] & STALE) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns true iff the commit at position TARGET is an ancestor of any
+     *  of the commits at positions FROM. Walks no further back than the
+     *  generation of TARGET. */
+    private static boolean reaches(List<Integer> from, int target) {
+        int floor = CommitGraph.generation(target);
+        BitSet seen = new BitSet();
+        ArrayDeque<Integer> pending = new ArrayDeque<>(from);
+        while (!pending.isEmpty()) {
+            int pos = pending.pop();
+            if (pos == target) {
+                return true;
+            }
+            if (pos == CommitGraph.NONE || seen.get(pos) || CommitGraph.generation(pos) <= floor) {
+                continue;
             }
+            seen.set(pos);
+            pending.push(CommitGraph.parent(pos));
+            pending.push(CommitGraph.secondParent(pos));
         }
-        throw new GitletException("Reached initial commit without finding split point.");
+        return false;
     }
 
     /** Checks for the presence of untracked files in the current commit.
@@ -436,12 +1079,8 @@ public class Gitlet {
      */
     public static void checkUntrackedFiles(Map otherSnapshot) throws GitletException {
         Map currSnapshot = getCurrentCommit().getSnapshot();
-        Set currSnapFiles = (new HashMap(currSnapshot)).keySet();
-        List workingDir = Utils.plainFilenamesIn(System.getProperty("user.dir"));
-        Set stagingAreaFiles = (new HashMap(stagingArea())).keySet();
-        Set otherSnapFiles = (new HashMap(otherSnapshot)).keySet();
-        for (Object f:otherSnapFiles) {
-            if (workingDir.contains(f) && !currSnapFiles.contains(f)) {
+        for (Object f : otherSnapshot.keySet()) {
+            if (!currSnapshot.containsKey(f) && new File((String) f).isFile()) {
                 throw new GitletException("There is an untracked file in the way; "
                         + "delete it or add it first.");
             }
@@ -452,64 +1091,82 @@ public class Gitlet {
 
 
     public static void commit(String message) throws GitletException {
+        commit(message, null);
+    }
+
+    /** Commits the staged changes with log message MESSAGE, merging the
+     *  commit SECONDPARENTID into the current one if it is not null. A merge
+     *  may be committed even if it changes no files. */
+    private static void commit(String message, String secondParentID) {
         if (message.equals("")) {
             throw new GitletException("Please enter a commit message.");
 
-        } else if (stagingArea().isEmpty() && marked().isEmpty()) {
+        }
+        Dirstate index = Dirstate.read();
+        if (secondParentID == null && !index.hasChanges()) {
             throw new GitletException("No changes added to the commit.");
         }
-        Map<String, Blob> stagingArea = stagingArea();
-        Commit newCommit = new Commit(getCurrentCommit().getID(), message);
-        for (String filename: stagingArea.keySet()) {
-            Blob fileBlob = stagingArea.get(filename);
-            Utils.writeContents(new File(".gitlet/BLOBS/" + fileBlob.getID()), serialize(fileBlob));
-            newCommit.addToSnapshot(filename, fileBlob.getID());
-        }
-        List<String> marked = marked();
-        for (String toRemove: marked) {
-            newCommit.removeFromSnapshot(toRemove);
-        }
-        stagingArea.clear();
-        marked.clear();
-        Utils.writeContents(new File(".gitlet/staging_area"), serialize(stagingArea));
-        Utils.writeContents(new File(".gitlet/marked"), serialize(marked));
+        Map<String, ObjectId> changes = new HashMap<>();
+        for (String filename : index.paths(Dirstate.STAGED)) {
+            Dirstate.Entry entry = index.get(filename);
+            changes.put(filename, entry.id);
+            entry.state = Dirstate.TRACKED;
+        }
+        for (String toRemove : index.paths(Dirstate.REMOVED)) {
+            changes.put(toRemove, null);
+            index.remove(toRemove);
+        }
+        String parentID = getCurrentCommit().getID();
+        Commit newCommit = new Commit(parentID, secondParentID, message, changes);
         addCommit(newCommit);
-        setBranch(newCommit.getID());
+        setBranch(parentID, newCommit.getID());
+        index.write();
     }
 
-    /** Takes in a COMMITID and returns the corresponding Commit object. */
+    /** Consolidates all objects into a single pack, storing each version of
+     *  a file as a delta against its previous version where that is smaller,
+     *  and moves all branches into packed-refs. */
+    public static void repack() {
+        PackFile.repack();
+        Refs.pack();
+    }
+
+    /** Takes in a COMMITID, which may be abbreviated, and returns the
+     *  corresponding Commit object. Returns null if no commit has that ID,
+     *  and throws a GitletException if the abbreviation is ambiguous. */
     public static Commit getCommit(String commitID) {
-        if (commitID.length() < 40) {
-            String[] allCommits = (new File(".gitlet/COMMITS")).list();
-            for (String commit : allCommits) {
-                if (commit.startsWith(commitID)) {
-                    return (Commit) deserialize(".gitlet/COMMITS/" + commit);
-                }
+        if (commitID.length() < Utils.UID_LENGTH) {
+            List<String> matches = ObjectIndex.find(commitID, ObjectStore.COMMIT);
+            if (matches.size() > 1) {
+                throw new GitletException("Ambiguous commit id.");
             }
-            return null;
+            return matches.isEmpty() ? null : getCommit(matches.get(0));
         }
-        return (Commit) deserialize(".gitlet/COMMITS/" + commitID);
+        return ObjectCache.commit(commitID, (id) -> {
+            byte[] body = ObjectStore.read(id, ObjectStore.COMMIT);
+            return body == null ? null : Commit.decode(id, body);
+        });
     }
 
     public static void addCommit(Commit com) {
-        File f = new File(".gitlet/COMMITS/" + com.getID());
-        Utils.writeContents(f, serialize(com));
+        ObjectStore.write(ObjectStore.COMMIT, com.getID(), com.encode());
+        CommitGraph.add(com);
+        MessageIndex.update();
+        ChangedPaths.update();
     }
 
     /** Returns the commit ID of the Commit at the head of branch BRANCH_NAME. */
     public static String getBranchHeadCommitID(String branchName) {
-        Map branches = branches();
-        return (String) branches.get(branchName);
+        return Refs.get(branchName);
     }
 
     /**
      * Sets current branch to
-     * @param comID representing new current commit.
+     * @param comID representing new current commit,
+     * provided it is still at the commit OLDID.
      */
-    public static void setBranch(String comID) {
-        Map<String, String> branches = branches();
-        branches.replace(head(), comID);
-        Utils.writeContents(new File(".gitlet/branches"), serialize(branches));
+    public static void setBranch(String oldID, String comID) {
+        Refs.update(head(), oldID, comID);
     }
 
     /**
@@ -522,17 +1179,22 @@ public class Gitlet {
     /**
      *  Takes in a String BRANCH (a branch name) and sets HEAD
      *  to that branch name. (i.e. rewrites the contents
-     *  of .gitlet/HEAD to be a new string.)
+     *  of .gitlet/HEAD to name it.)
      */
     public static void setHead(String branch) {
-        Utils.writeContents(new File(".gitlet/HEAD"), serialize(branch));
+        Refs.setHead(branch);
     }
 
-    /** Given a blob's name blobName, returns the corresponding Blob object.
-     *  Returns null if no Blob exists with that name.
+    /** Given a blob's SHA-1 ID BLOBID, returns the contents of the file it records.
+     *  Returns null if no Blob exists with that ID.
      */
-    public static Blob getBlob(String blobName) {
-        String path = ".gitlet/BLOBS/" + blobName;
-        return (Blob) deserialize(path);
+    public static byte[] getBlobContents(String blobID) {
+        return ObjectCache.blob(blobID, (id) -> ObjectStore.read(id, ObjectStore.BLOB));
+    }
+
+    /** Given a blob's ID BLOBID, returns the contents of the file it records,
+     *  or null if no Blob exists with that ID. */
+    public static byte[] getBlobContents(ObjectId blobID) {
+        return getBlobContents(blobID.name());
     }
 }
@@ -0,0 +1,176 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/** A memory-mapped table of sorted object IDs, the common layout of the
+ *  object index and of pack indices. The file starts with a four-byte
+ *  magic, a version and the number of IDs N. A fan-out table follows:
+ *  256 ints, the Kth of which counts the IDs whose first byte is at most
+ *  K. Then come the N raw 20-byte IDs in ascending order, then whatever
+ *  per-ID data the particular kind of file stores.
+ */
+class IdTable {
+
+    /** Length in bytes of a raw SHA-1 ID. */
+    static final int RAW_ID_LENGTH = 20;
+    /** Offset of the fan-out table. */
+    private static final int FAN_OUT = 12;
+    /** Offset of the first ID. */
+    private static final int IDS = FAN_OUT + 256 * 4;
+
+    /** The contents of the table, usually mapped from its file. */
+    private final ByteBuffer _buf;
+    /** Number of IDs. */
+    private final int _count;
+
+    /** Maps FILE, which must start with MAGIC and VERSION. */
+    IdTable(File file, String magic, int version) throws IOException {
+        this(map(file), magic, version);
+    }
+
+    /** The table held in BUF, which must start with MAGIC and VERSION. */
+    IdTable(ByteBuffer buf, String magic, int version) throws IOException {
+        _buf = buf;
+        byte[] actual = new byte[4];
+        if (_buf.limit() < IDS) {
+            throw new IOException("truncated table");
+        }
+        _buf.get(0, actual);
+        if (!magic.equals(new String(actual, StandardCharsets.US_ASCII))
+                || _buf.getInt(4) != version) {
+            throw new IOException("unrecognized table");
+        }
+        _count = _buf.getInt(8);
+    }
+
+    /** Returns the contents of FILE, mapped read-only. */
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Writes the header, fan-out table and IDS, which must be sorted, of
+     *  a table with MAGIC and VERSION to OUT. */
+    static void write(DataOutputStream out, String magic, int version,
+                      List<String> ids) throws IOException {
+        out.writeBytes(magic);
+        out.writeInt(version);
+        out.writeInt(ids.size());
+        int[] fanOut = new int[256];
+        for (String id : ids) {
+            fanOut[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int k = 0; k < 256; k += 1) {
+            total += fanOut[k];
+            out.writeInt(total);
+        }
+        for (String id : ids) {
+            out.write(fromHex(id));
+        }
+    }
+
+    /** Returns the number of IDs. */
+    int count() {
+        return _count;
+    }
+
+    /** Returns the contents of the table. */
+    ByteBuffer buffer() {
+        return _buf;
+    }
+
+    /** Returns the offset of the first byte after the IDs. */
+    int dataStart() {
+        return IDS + _count * RAW_ID_LENGTH;
+    }
+
+    /** Returns the Kth ID in hexadecimal. */
+    String idAt(int k) {
+        return ObjectId.fromBuffer(_buf, IDS + k * RAW_ID_LENGTH).name();
+    }
+
+    /** Returns the position of the full ID, or -1 if it is not present. */
+    int search(String id) {
+        int[] range = range(id);
+        return range[0] < range[1] ? range[0] : -1;
+    }
+
+    /** Returns the positions [LO, HI) of the IDs that start with PREFIX,
+     *  found by binary search within the slice of the fan-out table that
+     *  PREFIX selects. */
+    int[] range(String prefix) {
+        int lo = 0;
+        int hi = _count;
+        if (prefix.length() >= 2) {
+            int first = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = first == 0 ? 0 : _buf.getInt(FAN_OUT + (first - 1) * 4);
+            hi = _buf.getInt(FAN_OUT + first * 4);
+        }
+        byte[] low = fromHex(pad(prefix, '0'));
+        byte[] high = fromHex(pad(prefix, 'f'));
+        int start = lowerBound(lo, hi, low);
+        int end = start;
+        while (end < hi && compare(end, high) <= 0) {
+            end += 1;
+        }
+        return new int[] { start, end };
+    }
+
+    /** Returns the first position in [LO, HI) whose ID is not less than KEY. */
+    private int lowerBound(int lo, int hi, byte[] key) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the Kth ID with the raw ID KEY as unsigned bytes. */
+    private int compare(int k, byte[] key) {
+        int pos = IDS + k * RAW_ID_LENGTH;
+        for (int i = 0; i < RAW_ID_LENGTH; i += 1) {
+            int c = Integer.compare(_buf.get(pos + i) & 0xff, key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns PREFIX extended to a full ID with copies of FILL. */
+    private static String pad(String prefix, char fill) {
+        StringBuilder result = new StringBuilder(prefix);
+        while (result.length() < Utils.UID_LENGTH) {
+            result.append(fill);
+        }
+        return result.toString();
+    }
+
+    /** Returns true iff S is a possible prefix of a hexadecimal ID. */
+    static boolean isHex(String s) {
+        return ObjectId.isHex(s);
+    }
+
+    /** Returns the 40-character hexadecimal form of the raw ID RAW. */
+    static String toHex(byte[] raw) {
+        return ObjectId.toHex(raw, 0, raw.length);
+    }
+
+    /** Returns the raw bytes of the hexadecimal ID HEX. */
+    static byte[] fromHex(String hex) {
+        return ObjectId.fromHex(hex).raw();
+    }
+}
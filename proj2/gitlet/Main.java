@@ -4,6 +4,7 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
@@ -12,20 +13,53 @@ import java.util.List;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> .... If a daemon is serving the repository in
+     *  the current directory, the command is run there; otherwise it is run
+     *  in this process. */
     public static void main(String... args) {
+        if (System.getenv("GITLET_NO_DAEMON") == null && Daemon.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    /** Runs the command given by ARGS, as for main, in this process. If
+     *  GITLET_VERBOSE is set, then reports the hits and misses of its
+     *  caches on the standard error. If ARGS begins with the option
+     *  --trace, which is otherwise ignored, or GITLET_TRACE is set, then
+     *  reports a trace of the command as described in Trace. */
+    static void run(String... args) {
+        ObjectCache.resetCounters();
+        boolean trace = args.length > 0 && args[0].equals(Trace.OPTION);
+        if (trace) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (trace || getenv("GITLET_TRACE") != null) {
+            Trace.start();
+        }
+        String[] command = args;
+        try {
+            Trace.time("command", () -> dispatch(command));
+        } finally {
+            Trace.finish(command);
+        }
+        if (getenv("GITLET_VERBOSE") != null) {
+            System.err.println(ObjectCache.counters());
+        }
+    }
+
+    /** Runs the command given by ARGS. */
+    private static void dispatch(String... args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
-            System.exit(0);
+            return;
         }
         String command = args[0];
         if (!_commands.contains(command)) {
             System.out.println("No command with that name exists.");
-            System.exit(0);
         } else if (command.equals("init")) {
             if (args.length != 1) {
                 System.out.println("Incorrect operands.");
-                System.exit(0);
             } else {
                 try {
                     new Gitlet().init();
@@ -37,13 +71,42 @@ public class Main {
             File gitlet = (new File(".gitlet"));
             if (!gitlet.exists()) {
                 System.out.println("Not in an initialized gitlet directory.");
-                return;
+            } else if (command.equals("daemon")) {
+                Daemon.serve(Arrays.copyOfRange(args, 1, args.length));
             } else {
-                commandHelper(args);
+                boolean shared = _readOnlyCommands.contains(command) && RepoLock.canShare();
+                try {
+                    RepoLock lock = acquire(shared);
+                    try {
+                        Trace.time("migrate", () -> {
+                            ObjectStore.migrate();
+                            Refs.migrate();
+                        });
+                        Trace.time(command, () -> commandHelper(args));
+                    } finally {
+                        lock.close();
+                    }
+                } catch (GitletException e) {
+                    System.out.print(e.getMessage());
+                }
             }
         }
     }
 
+    /** Returns the lock on the repository, shared if SHARED, once it is
+     *  acquired. */
+    private static RepoLock acquire(boolean shared) {
+        return Trace.time("lock", () -> RepoLock.acquire(shared));
+    }
+
+    /** Returns the value of the environment variable NAME for the command
+     *  being run: the client's when running in a daemon, and otherwise this
+     *  process's. Returns null if it is not set. */
+    static String getenv(String name) {
+        Map<String, String> env = Daemon.clientEnvironment();
+        return env != null ? env.get(name) : System.getenv(name);
+    }
+
 
     /** Calls the corresponding Gitlet method for <COMMAND> in args.
      *  Prints an error message if the wrong number or type of operands are given.
@@ -63,17 +126,38 @@ public class Main {
                 case "status":
                     Gitlet.status();
                     break;
+                case "repack":
+                    Gitlet.repack();
+                    break;
+                case "diff":
+                    Gitlet.diff();
+                    break;
                 default:
                     System.out.print("Incorrect operands.");
-                    System.exit(0);
+            }
+        } else if (command.equals("add")) {
+            try {
+                Gitlet.add(Arrays.copyOfRange(args, 1, args.length));
+            } catch (GitletException e) {
+                System.out.print(e.getMessage());
+            }
+        } else if (command.equals("global-log")) {
+            try {
+                Gitlet.globalLog(Arrays.copyOfRange(args, 1, args.length));
+            } catch (GitletException e) {
+                System.out.print(e.getMessage());
+            }
+        } else if (command.equals("diff")) {
+            try {
+                Gitlet.diff(Arrays.copyOfRange(args, 1, args.length));
+            } catch (GitletException e) {
+                System.out.print(e.getMessage());
             }
         } else if (numOperands == 1) {
             String operand = args[1];
             if (operand == null) {
                 System.out.print("Incorrect operands.");
-                System.exit(0);
-            }
-            if (_oneArgCommands.keySet().contains(command)) {
+            } else if (_oneArgCommands.keySet().contains(command)) {
                 try {
                     _oneArgCommands.get(command).doCommand(operand);
                 } catch (GitletException e) {
@@ -81,7 +165,6 @@ public class Main {
                 }
             } else {
                 System.out.print("Incorrect operands.");
-                System.exit(0);
             }
         } else if (numOperands == 2) {
             String operand = args[2];
@@ -91,9 +174,20 @@ public class Main {
                 } catch (GitletException e) {
                     System.out.print(e.getMessage());
                 }
+            } else if (command.equals("log") && args[1].equals("--")) {
+                try {
+                    Gitlet.log(operand);
+                } catch (GitletException e) {
+                    System.out.print(e.getMessage());
+                }
+            } else if (command.equals("find")) {
+                try {
+                    Gitlet.find(args[1], operand);
+                } catch (GitletException e) {
+                    System.out.print(e.getMessage());
+                }
             } else {
                 System.out.print("Incorrect operands.");
-                System.exit(0);
             }
         } else if (numOperands == 3) {
             String commitID = args[1];
@@ -106,7 +200,6 @@ public class Main {
                 }
             } else {
                 System.out.print("Incorrect operands.");
-                System.exit(0);
             }
         }
     }
@@ -114,7 +207,7 @@ public class Main {
 
     /** A mapping of String commands to Gitlet command operations that take in one argument. */
     static HashMap<String, OneArgCommand> _oneArgCommands = new HashMap<String, OneArgCommand>() { {
-            put("add", Gitlet::add); put("rm", Gitlet::remove); put("branch", Gitlet::branch);
+            put("rm", Gitlet::remove); put("branch", Gitlet::branch);
             put("rm-branch", Gitlet::rmBranch); put("commit", Gitlet::commit);
             put("find", Gitlet::find); put("checkout", Gitlet::checkoutBranch);
             put("merge", Gitlet::merge); put("reset", Gitlet::reset);
@@ -129,6 +222,12 @@ public class Main {
 
     /** A list of the valid commands. */
     private static List<String> _commands = Arrays.asList("log", "global-log", "status", "init",
-            "add", "rm", "branch", "rm-branch", "commit", "find", "checkout", "merge", "reset");
+            "add", "rm", "branch", "rm-branch", "commit", "find", "checkout", "merge", "reset",
+            "repack", "diff", "daemon");
+
+    /** The commands that only read the repository, and so may run alongside
+     *  one another. */
+    private static List<String> _readOnlyCommands = Arrays.asList("log", "global-log",
+            "status", "find", "diff");
 
 }
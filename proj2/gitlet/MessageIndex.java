@@ -0,0 +1,534 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/** An index of the log messages of the commits in the commit graph, so
+ *  that find need not read every message.
+ *
+ *  .gitlet/message-index starts with the magic "MIDX", a version, the
+ *  number of graph positions it covers and the raw ID of the last commit
+ *  covered, so that an index made for a rebuilt graph is recognized. Then
+ *  comes an open-addressing hash table of a power-of-two number of slots,
+ *  each a 64-bit key, the offset of its posting list and the length of
+ *  that list (zero for an empty slot). A key is either a hash of an entire
+ *  message or one of the three-byte sequences (trigrams) of the UTF-8
+ *  encoding of messages, and its posting list holds, in ascending order,
+ *  the graph positions of the commits whose messages have that hash or
+ *  contain that trigram, each as a variable-length difference from the
+ *  position before it.
+ *
+ *  Commits made since the index was written are checked directly; once
+ *  there are more than STALE_LIMIT of them, the next commit rewrites the
+ *  index.
+ */
+class MessageIndex {
+
+    /** The index file. */
+    static final File FILE = new File(".gitlet/message-index");
+
+    /** Format version of FILE. */
+    private static final int VERSION = 1;
+    /** Offsets of the fields of the header, and its length. */
+    private static final int COVERED = 8, LAST = 12,
+        CAPACITY = LAST + IdTable.RAW_ID_LENGTH, HEADER = CAPACITY + 4;
+    /** Length of a slot of the hash table. */
+    private static final int SLOT = 8 + 4 + 4;
+    /** Number of commits not in the index above which it is rewritten. */
+    private static final int STALE_LIMIT = 1024;
+    /** Bit set in the keys of trigrams and clear in those of messages. */
+    private static final long TRIGRAM = Long.MIN_VALUE;
+
+    /** The mapped contents of FILE, or null if not loaded or unusable. */
+    private static ByteBuffer _buf;
+    /** Number of graph positions covered by _buf. */
+    private static int _covered;
+    /** Number of slots in the hash table of _buf. */
+    private static int _capacity;
+    /** The Utils.stamp of FILE as mapped, or null if not loaded. */
+    private static String _stamp;
+
+    /** Returns the graph positions of the commits whose log message is
+     *  MESSAGE, in ascending order. */
+    static List<Integer> exact(String message) {
+        return search(message::equals, messageKey(message));
+    }
+
+    /** Returns the graph positions of the commits whose log message
+     *  contains TEXT, in ascending order. */
+    static List<Integer> containing(String text) {
+        return search((m) -> m.contains(text), trigramKeys(text));
+    }
+
+    /** Returns the graph positions of the commits whose log message
+     *  contains a match of PATTERN, in ascending order. */
+    static List<Integer> matching(Pattern pattern) {
+        Set<Long> keys = new LinkedHashSet<>();
+        for (String literal : requiredLiterals(pattern.pattern())) {
+            for (long key : trigramKeys(literal)) {
+                keys.add(key);
+            }
+        }
+        long[] required = keys.stream().mapToLong(Long::longValue).toArray();
+        return search((m) -> pattern.matcher(m).find(), required);
+    }
+
+    /** Brings the index up to date after a commit has been added to the
+     *  graph, if enough commits have been added since it was written. */
+    static void update() {
+        load();
+        if (CommitGraph.count() - _covered > STALE_LIMIT) {
+            rebuild();
+        }
+    }
+
+    /** Forgets the mapped index if another process has changed it since. */
+    static void refresh() {
+        if (_stamp != null && !Utils.stamp(FILE).equals(_stamp)) {
+            _buf = null;
+            _stamp = null;
+        }
+    }
+
+    /** Returns the positions of the commits whose messages satisfy TEST,
+     *  checking only those commits the index lists under each of KEYS, and
+     *  those it does not cover. */
+    private static List<Integer> search(Predicate<String> test, long... keys) {
+        load();
+        List<Integer> result = new ArrayList<>();
+        int[] candidates = candidates(keys);
+        if (candidates == null) {
+            for (int pos = 0; pos < _covered; pos += 1) {
+                if (test.test(CommitGraph.message(pos))) {
+                    result.add(pos);
+                }
+            }
+        } else {
+            for (int pos : candidates) {
+                if (test.test(CommitGraph.message(pos))) {
+                    result.add(pos);
+                }
+            }
+        }
+        for (int pos = _covered; pos < CommitGraph.count(); pos += 1) {
+            if (test.test(CommitGraph.message(pos))) {
+                result.add(pos);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the covered positions listed under all of KEYS, or null if
+     *  there are no KEYS, so that every covered position is a candidate. */
+    private static int[] candidates(long[] keys) {
+        if (keys.length == 0) {
+            return null;
+        }
+        List<long[]> slots = new ArrayList<>();
+        for (long key : keys) {
+            long[] slot = lookup(key);
+            if (slot == null) {
+                return new int[0];
+            }
+            slots.add(slot);
+        }
+        slots.sort((a, b) -> Long.compare(a[1], b[1]));
+        int[] result = postings(slots.get(0));
+        for (int k = 1; k < slots.size() && result.length > 0; k += 1) {
+            result = intersect(result, postings(slots.get(k)));
+        }
+        return result;
+    }
+
+    /** Returns the offset and length of the posting list of KEY, or null if
+     *  KEY is not in the table. */
+    private static long[] lookup(long key) {
+        if (_capacity == 0) {
+            return null;
+        }
+        int mask = _capacity - 1;
+        for (int slot = hash(key) & mask; true; slot = (slot + 1) & mask) {
+            int at = HEADER + slot * SLOT;
+            int length = _buf.getInt(at + 12);
+            if (length == 0) {
+                return null;
+            } else if (_buf.getLong(at) == key) {
+                return new long[] { _buf.getInt(at + 8), length };
+            }
+        }
+    }
+
+    /** Decodes the posting list at the offset and length given by SLOT. */
+    private static int[] postings(long[] slot) {
+        int[] result = new int[(int) slot[1]];
+        int at = HEADER + _capacity * SLOT + (int) slot[0];
+        int pos = -1;
+        for (int k = 0; k < result.length; k += 1) {
+            int delta = 0;
+            for (int shift = 0; true; shift += 7) {
+                byte b = _buf.get(at);
+                at += 1;
+                delta |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            pos += delta;
+            result[k] = pos;
+        }
+        return result;
+    }
+
+    /** Returns the values in both A and B, which are sorted. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n] = a[i];
+                n += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Maps FILE if it is not mapped. If it is missing or does not describe
+     *  the current commit graph, rewrites it if this command may write to
+     *  the repository, and otherwise ignores it. */
+    private static void load() {
+        if (_stamp != null) {
+            return;
+        }
+        _stamp = Utils.stamp(FILE);
+        _buf = null;
+        _covered = 0;
+        _capacity = 0;
+        ByteBuffer buf = map();
+        if (buf == null) {
+            if (!RepoLock.isShared()) {
+                rebuild();
+            }
+            return;
+        }
+        _buf = buf;
+        _covered = buf.getInt(COVERED);
+        _capacity = buf.getInt(CAPACITY);
+    }
+
+    /** Returns the contents of FILE, mapped read-only, or null if it is
+     *  missing, unrecognized or does not describe the current commit graph. */
+    private static ByteBuffer map() {
+        if (!FILE.isFile()) {
+            return null;
+        }
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(FILE.toPath(), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            return null;
+        }
+        if (buf.limit() < HEADER || buf.getInt(0) != 0x4d494458 || buf.getInt(4) != VERSION) {
+            return null;
+        }
+        int covered = buf.getInt(COVERED);
+        byte[] last = new byte[IdTable.RAW_ID_LENGTH];
+        buf.get(LAST, last);
+        if (covered > CommitGraph.count()
+                || covered > 0 && !CommitGraph.id(covered - 1).equals(IdTable.toHex(last))) {
+            return null;
+        }
+        return buf;
+    }
+
+    /** Writes FILE anew to cover every commit in the graph, and maps it. */
+    static void rebuild() {
+        int count = CommitGraph.count();
+        Map<Long, IntList> postings = new HashMap<>();
+        for (int pos = 0; pos < count; pos += 1) {
+            String message = CommitGraph.message(pos);
+            postings.computeIfAbsent(messageKey(message), (k) -> new IntList()).add(pos);
+            for (long key : trigramKeys(message)) {
+                postings.computeIfAbsent(key, (k) -> new IntList()).add(pos);
+            }
+        }
+        int capacity = 16;
+        while (capacity < postings.size() * 2) {
+            capacity *= 2;
+        }
+        long[] keys = new long[capacity];
+        IntList[] lists = new IntList[capacity];
+        for (Map.Entry<Long, IntList> item : postings.entrySet()) {
+            int slot = hash(item.getKey()) & (capacity - 1);
+            while (lists[slot] != null) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            keys[slot] = item.getKey();
+            lists[slot] = item.getValue();
+        }
+
+        File tmp;
+        try {
+            tmp = File.createTempFile("tmp_message-index", null, FILE.getParentFile());
+        } catch (IOException excp) {
+            throw new GitletException("Could not write message index.");
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeBytes("MIDX");
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.write(count == 0 ? new byte[IdTable.RAW_ID_LENGTH]
+                : IdTable.fromHex(CommitGraph.id(count - 1)));
+            out.writeInt(capacity);
+            int offset = 0;
+            for (int slot = 0; slot < capacity; slot += 1) {
+                out.writeLong(keys[slot]);
+                out.writeInt(offset);
+                out.writeInt(lists[slot] == null ? 0 : lists[slot].size);
+                offset += lists[slot] == null ? 0 : lists[slot].encodedLength();
+            }
+            for (IntList list : lists) {
+                if (list != null) {
+                    list.encode(out);
+                }
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new GitletException("Could not write message index.");
+        }
+        ObjectStore.install(tmp, FILE);
+        _stamp = null;
+        load();
+    }
+
+    /** Returns the key of the whole message MESSAGE: its 64-bit FNV-1a
+     *  hash, less the TRIGRAM bit. */
+    private static long messageKey(String message) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : message.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash & ~TRIGRAM;
+    }
+
+    /** Returns the distinct keys of the trigrams of the UTF-8 encoding of
+     *  TEXT. A string contains TEXT only if its encoding has all of them. */
+    private static long[] trigramKeys(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Set<Long> keys = new LinkedHashSet<>();
+        for (int k = 0; k + 3 <= bytes.length; k += 1) {
+            keys.add(TRIGRAM | (bytes[k] & 0xff) << 16 | (bytes[k + 1] & 0xff) << 8
+                     | (bytes[k + 2] & 0xff));
+        }
+        return keys.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /** Returns literal strings that any string containing a match of the
+     *  regular expression REGEX must contain. Only runs of plain characters
+     *  outside groups, classes and alternations are considered; the result
+     *  is empty if REGEX alternates at the top level or sets flags. */
+    static List<String> requiredLiterals(String regex) {
+        List<String> result = new ArrayList<>();
+        if (regex.contains("(?")) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int k = 0; k < regex.length(); k += 1) {
+            char c = regex.charAt(k);
+            char literal = 0;
+            if (c == '\\' && k + 1 < regex.length()) {
+                k += 1;
+                char next = regex.charAt(k);
+                if (next == 'Q') {
+                    int end = regex.indexOf("\\E", k);
+                    end = end < 0 ? regex.length() : end;
+                    String quoted = regex.substring(k + 1, end);
+                    k = Math.min(end + 1, regex.length() - 1);
+                    if (run.length() > 0) {
+                        result.add(run.toString());
+                        run.setLength(0);
+                    }
+                    boolean optional = k + 1 < regex.length()
+                        && "?*{".indexOf(regex.charAt(k + 1)) >= 0;
+                    if (depth == 0 && !optional) {
+                        result.add(quoted);
+                    }
+                    continue;
+                } else if (!Character.isLetterOrDigit(next)) {
+                    literal = next;
+                } else {
+                    k = escapeEnd(regex, k);
+                }
+            } else if (c == '[') {
+                k = classEnd(regex, k);
+            } else if (c == '{') {
+                int close = regex.indexOf('}', k);
+                k = close < 0 ? regex.length() : close;
+            } else if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth = Math.max(0, depth - 1);
+            } else if (c == '|') {
+                if (depth == 0) {
+                    return new ArrayList<>();
+                }
+            } else if (".^$*+?{}".indexOf(c) < 0) {
+                literal = c;
+            }
+            boolean optional = k + 1 < regex.length() && "?*{".indexOf(regex.charAt(k + 1)) >= 0;
+            if (literal != 0 && depth == 0 && !optional) {
+                run.append(literal);
+            } else {
+                if (run.length() > 0) {
+                    result.add(run.toString());
+                }
+                run.setLength(0);
+            }
+        }
+        if (run.length() > 0) {
+            result.add(run.toString());
+        }
+        return result;
+    }
+
+    /** Returns the index of the last character of the escape in REGEX
+     *  whose letter or digit, following a backslash, is at index START.
+     *  The escape includes its argument: the hexadecimal digits of an x or
+     *  u escape, the octal digits of a 0 escape, the further digits of a
+     *  back reference, the character of a c escape, and the name of a k,
+     *  p, P or N escape. */
+    private static int escapeEnd(String regex, int start) {
+        char c = regex.charAt(start);
+        int k = start;
+        if (c == 'x' || c == 'p' || c == 'P' || c == 'N') {
+            if (k + 1 < regex.length() && regex.charAt(k + 1) == '{') {
+                int close = regex.indexOf('}', k);
+                k = close < 0 ? regex.length() : close;
+            } else {
+                k += c == 'x' ? 2 : c == 'N' ? 0 : 1;
+            }
+        } else if (c == 'u') {
+            k += 4;
+        } else if (c == 'c') {
+            k += 1;
+        } else if (c == 'k') {
+            int close = regex.indexOf('>', k);
+            k = close < 0 ? regex.length() : close;
+        } else if (c == '0') {
+            int most = k + 1 < regex.length() && regex.charAt(k + 1) <= '3' ? 3 : 2;
+            while (most > 0 && k + 1 < regex.length()
+                   && regex.charAt(k + 1) >= '0' && regex.charAt(k + 1) <= '7') {
+                k += 1;
+                most -= 1;
+            }
+        } else if (c >= '1' && c <= '9') {
+            while (k + 1 < regex.length() && Character.isDigit(regex.charAt(k + 1))) {
+                k += 1;
+            }
+        }
+        return Math.min(k, regex.length() - 1);
+    }
+
+    /** Returns the index of the ']' closing the character class that
+     *  starts at index START of REGEX. */
+    private static int classEnd(String regex, int start) {
+        int k = start + 1;
+        if (k < regex.length() && regex.charAt(k) == '^') {
+            k += 1;
+        }
+        if (k < regex.length() && regex.charAt(k) == ']') {
+            k += 1;
+        }
+        for (int depth = 1; k < regex.length(); k += 1) {
+            char c = regex.charAt(k);
+            if (c == '\\') {
+                k += 1;
+            } else if (c == '[') {
+                depth += 1;
+            } else if (c == ']') {
+                depth -= 1;
+                if (depth == 0) {
+                    return k;
+                }
+            }
+        }
+        return regex.length();
+    }
+
+    /** Returns the slot at which to start probing for KEY, before masking. */
+    private static int hash(long key) {
+        long mixed = key * 0x9e3779b97f4a7c15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    /** A growable list of ascending ints. */
+    private static class IntList {
+        /** The values. */
+        private int[] values = new int[2];
+        /** Number of values. */
+        private int size;
+
+        /** Appends VALUE, which is greater than any value already present. */
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            size += 1;
+        }
+
+        /** Returns the number of bytes encode writes. */
+        int encodedLength() {
+            int length = 0;
+            int prev = -1;
+            for (int k = 0; k < size; k += 1) {
+                for (int delta = values[k] - prev; true; delta >>>= 7) {
+                    length += 1;
+                    if (delta < 0x80) {
+                        break;
+                    }
+                }
+                prev = values[k];
+            }
+            return length;
+        }
+
+        /** Writes the differences between successive values, starting from
+         *  -1, to OUT as variable-length integers. */
+        void encode(DataOutputStream out) throws IOException {
+            int prev = -1;
+            for (int k = 0; k < size; k += 1) {
+                int delta = values[k] - prev;
+                while (delta >= 0x80) {
+                    out.writeByte(delta & 0x7f | 0x80);
+                    delta >>>= 7;
+                }
+                out.writeByte(delta);
+                prev = values[k];
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/** Caches of what a repository's commands read repeatedly: deserialized
+ *  commits, parsed trees and blob contents, each in a least-recently-used
+ *  cache of bounded size, and the contents of ref files, which are
+ *  forgotten whenever Gitlet writes a ref or, in a daemon, when the ref
+ *  files change. Objects never change once written, so cached objects
+ *  are never stale. Each cache counts its hits and misses.
+ */
+class ObjectCache {
+
+    /** Most commits cached. */
+    private static final int COMMIT_LIMIT = 4096;
+    /** Most trees cached. */
+    private static final int TREE_LIMIT = 8192;
+    /** Most bytes of blob contents cached. */
+    private static final long BLOB_LIMIT = 32 << 20;
+
+    /** Deserialized commits by ID. */
+    private static final Lru<Commit> COMMITS = new Lru<>("commits", COMMIT_LIMIT, (c) -> 1);
+    /** Parsed trees by ID. */
+    private static final Lru<TreeMap<String, ObjectId>> TREES =
+        new Lru<>("trees", TREE_LIMIT, (t) -> 1);
+    /** Blob contents by ID. */
+    private static final Lru<byte[]> BLOBS = new Lru<>("blobs", BLOB_LIMIT, (b) -> b.length);
+    /** Contents of ref files, by name. */
+    private static final Lru<Object> REFS = new Lru<>("refs", Long.MAX_VALUE, (r) -> 1);
+
+    /** The files whose contents REFS may hold. */
+    private static final File[] REF_FILES = { Refs.HEAD, Refs.PACKED, Refs.HEADS };
+    /** The Utils.stamp of REF_FILES when REFS was last emptied. */
+    private static String _refStamp;
+
+    /** Returns the commit ID, reading it with LOADER if it is not cached.
+     *  Returns null if LOADER does. */
+    static Commit commit(String id, Function<String, Commit> loader) {
+        return COMMITS.get(id, loader);
+    }
+
+    /** Returns the entries of the tree ID, reading them with LOADER if they
+     *  are not cached. The result must not be modified. */
+    static TreeMap<String, ObjectId> tree(String id,
+                                          Function<String, TreeMap<String, ObjectId>> loader) {
+        return TREES.get(id, loader);
+    }
+
+    /** Returns the contents of the blob ID, reading them with LOADER if they
+     *  are not cached. Returns null if LOADER does. The result must not be
+     *  modified. */
+    static byte[] blob(String id, Function<String, byte[]> loader) {
+        return BLOBS.get(id, loader);
+    }
+
+    /** Returns the value of the ref NAME, reading it with LOADER if it is not
+     *  cached. The result must not be modified. */
+    @SuppressWarnings("unchecked")
+    static <T> T ref(String name, Supplier<T> loader) {
+        return (T) REFS.get(name, (k) -> loader.get());
+    }
+
+    /** Forgets all cached refs. Called after writing any ref. */
+    static void invalidateRefs() {
+        REFS.clear();
+        _refStamp = null;
+    }
+
+    /** Forgets cached refs if their files have changed since they were read. */
+    static void refresh() {
+        String stamp = Utils.stamp(REF_FILES);
+        if (!stamp.equals(_refStamp)) {
+            REFS.clear();
+            _refStamp = stamp;
+        }
+    }
+
+    /** Sets all hit and miss counts to zero. */
+    static void resetCounters() {
+        for (Lru<?> cache : new Lru<?>[] { COMMITS, TREES, BLOBS, REFS }) {
+            cache.resetCounters();
+        }
+    }
+
+    /** Returns the hit and miss counts of each cache, as a line of text. */
+    static String counters() {
+        StringBuilder result = new StringBuilder("cache:");
+        for (Lru<?> cache : new Lru<?>[] { COMMITS, TREES, BLOBS, REFS }) {
+            result.append(' ').append(cache);
+        }
+        return result.toString();
+    }
+
+    /** Returns the hit and miss counts of each cache, by cache name. */
+    static Map<String, long[]> hitsAndMisses() {
+        Map<String, long[]> result = new LinkedHashMap<>();
+        for (Lru<?> cache : new Lru<?>[] { COMMITS, TREES, BLOBS, REFS }) {
+            synchronized (cache) {
+                result.put(cache._name, new long[] { cache._hits, cache._misses });
+            }
+        }
+        return result;
+    }
+
+    /** A least-recently-used cache whose values have weights, and whose
+     *  total weight is bounded. */
+    private static class Lru<V> {
+
+        /** A cache named NAME holding values of total weight at most LIMIT
+         *  as measured by WEIGHER. */
+        Lru(String name, long limit, ToLongFunction<V> weigher) {
+            _name = name;
+            _limit = limit;
+            _weigher = weigher;
+        }
+
+        /** Returns the value for KEY, computing it with LOADER if it is
+         *  not present. Null values are not cached, nor are values weighing
+         *  more than a quarter of the limit. */
+        V get(String key, Function<String, V> loader) {
+            synchronized (this) {
+                V value = _entries.get(key);
+                if (value != null) {
+                    _hits += 1;
+                    return value;
+                }
+                _misses += 1;
+            }
+            V value = loader.apply(key);
+            if (value == null) {
+                return null;
+            }
+            long weight = _weigher.applyAsLong(value);
+            if (weight > _limit / 4) {
+                return value;
+            }
+            synchronized (this) {
+                V old = _entries.put(key, value);
+                _weight += weight - (old == null ? 0 : _weigher.applyAsLong(old));
+                Iterator<Map.Entry<String, V>> it = _entries.entrySet().iterator();
+                while (_weight > _limit && it.hasNext()) {
+                    _weight -= _weigher.applyAsLong(it.next().getValue());
+                    it.remove();
+                }
+            }
+            return value;
+        }
+
+        /** Empties this cache. */
+        synchronized void clear() {
+            _entries.clear();
+            _weight = 0;
+        }
+
+        /** Sets the hit and miss counts to zero. */
+        synchronized void resetCounters() {
+            _hits = 0;
+            _misses = 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s %d hit%s %d miss%s;", _name, _hits, _hits == 1 ? "" : "s",
+                _misses, _misses == 1 ? "" : "es");
+        }
+
+        /** Name used in reports. */
+        private final String _name;
+        /** Greatest total weight. */
+        private final long _limit;
+        /** Measures values. */
+        private final ToLongFunction<V> _weigher;
+        /** Entries, least recently used first. */
+        private final LinkedHashMap<String, V> _entries = new LinkedHashMap<>(16, 0.75f, true);
+        /** Total weight of the values in _entries. */
+        private long _weight;
+        /** Number of lookups that found their key. */
+        private long _hits;
+        /** Number of lookups that did not. */
+        private long _misses;
+    }
+}
@@ -0,0 +1,189 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** The SHA-1 ID of an object, held as its 20 raw bytes rather than as 40
+ *  hexadecimal characters, for use as the values of snapshots, parsed
+ *  trees and the index, which hold one ID per file.
+ *
+ *  The bytes are packed into two longs and an int, so an ObjectId takes a
+ *  third of the memory of the equivalent String, compares in three steps,
+ *  and hashes to its first four bytes, which SHA-1 already spreads evenly.
+ *  Conversions to and from hexadecimal go through lookup tables rather
+ *  than Formatter or Integer.parseInt.
+ */
+final class ObjectId implements Comparable<ObjectId> {
+
+    /** Length in bytes of a raw ID. */
+    static final int RAW_LENGTH = 20;
+    /** Length of an ID in hexadecimal. */
+    static final int HEX_LENGTH = 2 * RAW_LENGTH;
+
+    /** The lower-case hexadecimal digits as ASCII bytes, by value. */
+    private static final byte[] DIGITS =
+        "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    /** The value of each lower-case hexadecimal digit, by character, and -1
+     *  for characters that are not such digits. */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int k = 0; k < DIGITS.length; k += 1) {
+            VALUES[DIGITS[k]] = (byte) k;
+        }
+    }
+
+    /** Bytes 0-7 and 8-15 of the ID, big-endian. */
+    private final long _w0, _w1;
+    /** Bytes 16-19 of the ID, big-endian. */
+    private final int _w2;
+
+    /** The ID whose bytes are W0, W1 and W2, big-endian. */
+    private ObjectId(long w0, long w1, int w2) {
+        _w0 = w0;
+        _w1 = w1;
+        _w2 = w2;
+    }
+
+    /** Returns the ID whose raw bytes are the RAW_LENGTH bytes of RAW
+     *  starting at OFFSET. */
+    static ObjectId fromRaw(byte[] raw, int offset) {
+        return fromBuffer(ByteBuffer.wrap(raw), offset);
+    }
+
+    /** Returns the ID whose raw bytes are RAW, which must have RAW_LENGTH
+     *  bytes. */
+    static ObjectId fromRaw(byte[] raw) {
+        if (raw.length != RAW_LENGTH) {
+            throw new IllegalArgumentException("raw ID of " + raw.length + " bytes");
+        }
+        return fromRaw(raw, 0);
+    }
+
+    /** Returns the ID whose raw bytes are those of BUF at absolute
+     *  position POS. BUF must be big-endian. */
+    static ObjectId fromBuffer(ByteBuffer buf, int pos) {
+        return new ObjectId(buf.getLong(pos), buf.getLong(pos + 8), buf.getInt(pos + 16));
+    }
+
+    /** Returns the ID whose hexadecimal form is HEX, or throws
+     *  IllegalArgumentException if HEX is not a full lower-case ID. */
+    static ObjectId fromHex(CharSequence hex) {
+        if (hex.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("not an object ID: " + hex);
+        }
+        return new ObjectId(parse(hex, 0, 16), parse(hex, 16, 16), (int) parse(hex, 32, 8));
+    }
+
+    /** Returns the value of the COUNT hexadecimal digits of HEX starting at
+     *  START. */
+    private static long parse(CharSequence hex, int start, int count) {
+        long result = 0;
+        for (int k = start; k < start + count; k += 1) {
+            char c = hex.charAt(k);
+            int digit = c < VALUES.length ? VALUES[c] : -1;
+            if (digit < 0) {
+                throw new IllegalArgumentException("not an object ID: " + hex);
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+
+    /** Returns true iff S is a possible prefix of a hexadecimal ID: at most
+     *  HEX_LENGTH lower-case hexadecimal digits. */
+    static boolean isHex(CharSequence s) {
+        if (s.length() > HEX_LENGTH) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k += 1) {
+            char c = s.charAt(k);
+            if (c >= VALUES.length || VALUES[c] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the hexadecimal form of the LENGTH bytes of RAW starting at
+     *  OFFSET. */
+    static String toHex(byte[] raw, int offset, int length) {
+        byte[] result = new byte[2 * length];
+        for (int k = 0; k < length; k += 1) {
+            int b = raw[offset + k];
+            result[2 * k] = DIGITS[(b >> 4) & 0xf];
+            result[2 * k + 1] = DIGITS[b & 0xf];
+        }
+        return new String(result, StandardCharsets.US_ASCII);
+    }
+
+    /** Stores the raw bytes of this ID in DEST starting at OFFSET. */
+    void copyRawTo(byte[] dest, int offset) {
+        ByteBuffer.wrap(dest, offset, RAW_LENGTH).putLong(_w0).putLong(_w1).putInt(_w2);
+    }
+
+    /** Returns the raw bytes of this ID. */
+    byte[] raw() {
+        byte[] result = new byte[RAW_LENGTH];
+        copyRawTo(result, 0);
+        return result;
+    }
+
+    /** Returns the first byte of this ID, from 0 to 255. */
+    int firstByte() {
+        return (int) (_w0 >>> 56);
+    }
+
+    /** Returns the hexadecimal form of this ID. */
+    String name() {
+        byte[] result = new byte[HEX_LENGTH];
+        format(_w0, result, 0, 16);
+        format(_w1, result, 16, 16);
+        format(_w2 & 0xffffffffL, result, 32, 8);
+        return new String(result, StandardCharsets.US_ASCII);
+    }
+
+    /** Stores the low COUNT hexadecimal digits of VALUE in DEST starting
+     *  at START. */
+    private static void format(long value, byte[] dest, int start, int count) {
+        for (int k = start + count - 1; k >= start; k -= 1) {
+            dest[k] = DIGITS[(int) value & 0xf];
+            value >>>= 4;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return _w0 == other._w0 && _w1 == other._w1 && _w2 == other._w2;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (_w0 >>> 32);
+    }
+
+    /** Orders IDs as their raw bytes compare, unsigned, which is also the
+     *  order of their hexadecimal forms. */
+    @Override
+    public int compareTo(ObjectId other) {
+        int c = Long.compareUnsigned(_w0, other._w0);
+        if (c == 0) {
+            c = Long.compareUnsigned(_w1, other._w1);
+        }
+        if (c == 0) {
+            c = Integer.compareUnsigned(_w2, other._w2);
+        }
+        return c;
+    }
+}
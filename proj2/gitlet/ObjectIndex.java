@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The index of every object in the repository, loose or packed, so that
+ *  full and abbreviated IDs are resolved without listing directories.
+ *
+ *  .gitlet/objects/index is an IdTable (magic "OIDX") followed by one type
+ *  code per ID. Objects written since that file was last rebuilt are
+ *  appended to .gitlet/objects/index.log as a raw ID and a type code; once
+ *  the log holds COMPACT_THRESHOLD entries it is merged into the table.
+ */
+class ObjectIndex {
+
+    /** The sorted table of objects. */
+    static final File INDEX = new File(ObjectStore.OBJECTS, "index");
+    /** Objects added since INDEX was written. */
+    static final File JOURNAL = new File(ObjectStore.OBJECTS, "index.log");
+
+    /** Size of the journal, in entries, that triggers compaction. */
+    private static final int COMPACT_THRESHOLD = 1024;
+    /** Length of a journal entry. */
+    private static final int ENTRY = IdTable.RAW_ID_LENGTH + 1;
+    /** Format version of INDEX. */
+    private static final int VERSION = 1;
+
+    /** The mapped INDEX, or null if not yet loaded. */
+    private static IdTable _table;
+    /** The contents of JOURNAL. */
+    private static byte[] _journal;
+    /** The Utils.stamp of INDEX and JOURNAL as loaded. */
+    private static String _stamp;
+
+    /** Returns the IDs of all objects that start with PREFIX, in sorted order. */
+    static List<String> find(String prefix) {
+        return find(prefix, null);
+    }
+
+    /** Returns the IDs of all objects of kind TYPE, or of any kind if TYPE is
+     *  null, that start with PREFIX, in sorted order. */
+    static synchronized List<String> find(String prefix, String type) {
+        load();
+        List<String> result = new ArrayList<>();
+        if (!IdTable.isHex(prefix)) {
+            return result;
+        }
+        int code = type == null ? 0 : ObjectStore.typeCode(type);
+        int[] range = _table.range(prefix);
+        ByteBuffer buf = _table.buffer();
+        for (int k = range[0]; k < range[1]; k += 1) {
+            if (code == 0 || buf.get(_table.dataStart() + k) == code) {
+                result.add(_table.idAt(k));
+            }
+        }
+        TreeSet<String> recent = new TreeSet<>();
+        for (int pos = 0; pos < _journal.length; pos += ENTRY) {
+            if (code == 0 || _journal[pos + IdTable.RAW_ID_LENGTH] == code) {
+                String id = IdTable.toHex(Arrays.copyOfRange(_journal, pos,
+                        pos + IdTable.RAW_ID_LENGTH));
+                if (id.startsWith(prefix)) {
+                    recent.add(id);
+                }
+            }
+        }
+        if (!recent.isEmpty()) {
+            recent.addAll(result);
+            return new ArrayList<>(recent);
+        }
+        return result;
+    }
+
+    /** Returns the IDs of all objects of kind TYPE. */
+    static List<String> list(String type) {
+        return find("", type);
+    }
+
+    /** Returns true iff the index records the full ID. */
+    static synchronized boolean contains(String id) {
+        load();
+        if (_table.search(id) >= 0) {
+            return true;
+        }
+        byte[] raw = IdTable.fromHex(id);
+        for (int pos = 0; pos < _journal.length; pos += ENTRY) {
+            if (Arrays.equals(_journal, pos, pos + IdTable.RAW_ID_LENGTH,
+                    raw, 0, IdTable.RAW_ID_LENGTH)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Records that the object ID of kind TYPE has been stored. */
+    static synchronized void add(String id, String type) {
+        load();
+        byte[] entry = Arrays.copyOf(IdTable.fromHex(id), ENTRY);
+        entry[IdTable.RAW_ID_LENGTH] = (byte) ObjectStore.typeCode(type);
+        try (FileOutputStream out = new FileOutputStream(JOURNAL, true)) {
+            out.write(entry);
+        } catch (IOException excp) {
+            throw new GitletException("Could not update object index.");
+        }
+        byte[] journal = Arrays.copyOf(_journal, _journal.length + ENTRY);
+        System.arraycopy(entry, 0, journal, _journal.length, ENTRY);
+        _journal = journal;
+        _stamp = Utils.stamp(INDEX, JOURNAL);
+        if (_journal.length >= COMPACT_THRESHOLD * ENTRY) {
+            compact();
+        }
+    }
+
+    /** Maps INDEX and reads JOURNAL, first building INDEX from the object
+     *  directories and packs if this repository does not have one yet. */
+    private static void load() {
+        if (_table != null) {
+            return;
+        }
+        if (!INDEX.isFile()) {
+            rebuild();
+        }
+        try {
+            _table = new IdTable(INDEX, "OIDX", VERSION);
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt object index.");
+        }
+        _journal = JOURNAL.isFile() ? Utils.readContents(JOURNAL) : new byte[0];
+        _journal = Arrays.copyOf(_journal, _journal.length - _journal.length % ENTRY);
+        _stamp = Utils.stamp(INDEX, JOURNAL);
+    }
+
+    /** Forgets the loaded index if another process has changed it since. */
+    static synchronized void refresh() {
+        if (_table != null && !Utils.stamp(INDEX, JOURNAL).equals(_stamp)) {
+            _table = null;
+            _journal = null;
+        }
+    }
+
+    /** Rewrites INDEX to hold every object currently in the loose object
+     *  directories and the packs, and empties the journal. */
+    static synchronized void rebuild() {
+        TreeMap<String, String> objects = new TreeMap<>();
+        String[] dirs = ObjectStore.OBJECTS.list();
+        for (String dir : dirs == null ? new String[0] : dirs) {
+            List<String> names = Utils.plainFilenamesIn(new File(ObjectStore.OBJECTS, dir));
+            if (dir.length() != ObjectStore.FAN_OUT || names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String id = dir + name;
+                if (IdTable.isHex(id) && id.length() == Utils.UID_LENGTH) {
+                    objects.put(id, ObjectStore.readType(id));
+                }
+            }
+        }
+        for (PackFile pack : PackFile.packs()) {
+            for (String id : pack.find("")) {
+                objects.put(id, pack.typeOf(id));
+            }
+        }
+        writeTable(objects);
+    }
+
+    /** Merges the journal into INDEX. */
+    private static void compact() {
+        TreeMap<String, String> objects = new TreeMap<>();
+        ByteBuffer buf = _table.buffer();
+        for (int k = 0; k < _table.count(); k += 1) {
+            objects.put(_table.idAt(k), ObjectStore.typeName(buf.get(_table.dataStart() + k)));
+        }
+        for (int pos = 0; pos < _journal.length; pos += ENTRY) {
+            String id = IdTable.toHex(Arrays.copyOfRange(_journal, pos,
+                    pos + IdTable.RAW_ID_LENGTH));
+            objects.put(id, ObjectStore.typeName(_journal[pos + IdTable.RAW_ID_LENGTH]));
+        }
+        writeTable(objects);
+    }
+
+    /** Replaces INDEX with a table of OBJECTS, which maps IDs to their types,
+     *  empties the journal, and forgets the loaded table. */
+    private static void writeTable(TreeMap<String, String> objects) {
+        ObjectStore.OBJECTS.mkdirs();
+        File tmp = new File(ObjectStore.OBJECTS, "tmp_index");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            IdTable.write(out, "OIDX", VERSION, new ArrayList<>(objects.keySet()));
+            for (String type : objects.values()) {
+                out.write(ObjectStore.typeCode(type));
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new GitletException("Could not write object index.");
+        }
+        ObjectStore.install(tmp, INDEX);
+        JOURNAL.delete();
+        _table = null;
+        _journal = null;
+    }
+}
@@ -0,0 +1,405 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** The content-addressed object store of a Gitlet repository.
+ *  Every object lives in .gitlet/objects/XX/YYYY..., where XX are the
+ *  first two characters of its SHA-1 ID and YYYY... are the rest. The
+ *  file holds a deflated header "TYPE LENGTH\0" followed by the LENGTH
+ *  bytes of the object's body.
+ */
+class ObjectStore {
+
+    /** The directory holding all loose objects. */
+    static final File OBJECTS = new File(".gitlet/objects");
+
+    /** Type name of file contents. */
+    static final String BLOB = "blob";
+    /** Type name of commits. */
+    static final String COMMIT = "commit";
+    /** Type name of directory listings. */
+    static final String TREE = "tree";
+
+    /** Number of characters of an ID used as the fan-out directory name. */
+    static final int FAN_OUT = 2;
+
+    /** Size of the buffers through which file contents are streamed. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Returns the numeric code used for the object type TYPE in indices and
+     *  packs. Code 3 is reserved for deltas in packs. */
+    static int typeCode(String type) {
+        switch (type) {
+            case COMMIT:
+                return 1;
+            case BLOB:
+                return 2;
+            case TREE:
+                return 4;
+            default:
+                throw new GitletException("Unknown object type " + type + ".");
+        }
+    }
+
+    /** Returns the object type whose numeric code is CODE. */
+    static String typeName(int code) {
+        switch (code) {
+            case 1:
+                return COMMIT;
+            case 2:
+                return BLOB;
+            case 4:
+                return TREE;
+            default:
+                throw new GitletException("Unknown object type code " + code + ".");
+        }
+    }
+
+    /** Returns the file holding the object with the full ID. */
+    static File objectFile(String id) {
+        return new File(new File(OBJECTS, id.substring(0, FAN_OUT)), id.substring(FAN_OUT));
+    }
+
+    /** Returns true iff an object with the full ID is stored, either loose
+     *  or in a pack. */
+    static boolean contains(String id) {
+        return isID(id) && ObjectIndex.contains(id);
+    }
+
+    /** Stores BODY as an object of kind TYPE under ID. Objects are immutable,
+     *  so this does nothing if ID is already present. The object is written
+     *  to a temporary file first so that readers never see a partial object. */
+    static void write(String type, String id, byte[] body) {
+        File dest = objectFile(id);
+        if (contains(id)) {
+            return;
+        }
+        dest.getParentFile().mkdirs();
+        File tmp = new File(dest.getParentFile(), "tmp_" + id.substring(FAN_OUT));
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            Trace.time("object-write", () -> {
+                try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(tmp),
+                        deflater)) {
+                    out.write(header(type, body.length));
+                    out.write(body);
+                }
+            });
+        } catch (IOException excp) {
+            throw new GitletException("Could not write object " + id + ".");
+        } finally {
+            deflater.end();
+        }
+        install(tmp, dest);
+        ObjectIndex.add(id, type);
+        Trace.count(Trace.Counter.OBJECTS_WRITTEN);
+        Trace.count(Trace.Counter.OBJECT_BYTES_WRITTEN, body.length);
+    }
+
+    /** Stores the contents of FILE as an object of kind TYPE and returns its
+     *  ID, the SHA-1 hash of those contents. The file is hashed and
+     *  compressed in a single pass through a fixed-size buffer, so files
+     *  of any size can be stored. */
+    static String write(String type, File file) {
+        long length = file.length();
+        OBJECTS.mkdirs();
+        File tmp;
+        MessageDigest md = Utils.sha1Digester();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            tmp = File.createTempFile("tmp_", null, OBJECTS);
+        } catch (IOException excp) {
+            throw new GitletException("Could not write object for " + file + ".");
+        }
+        try {
+            Trace.time("object-write", () -> {
+                try (InputStream in = new FileInputStream(file);
+                     OutputStream out = new DeflaterOutputStream(new FileOutputStream(tmp),
+                         deflater, BUFFER_SIZE)) {
+                    out.write(header(type, length));
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    long total = 0;
+                    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                        md.update(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                        total += n;
+                    }
+                    if (total != length) {
+                        throw new IOException("file changed while it was read");
+                    }
+                }
+            });
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new GitletException("Could not write object for " + file + ".");
+        } finally {
+            deflater.end();
+        }
+        String id = IdTable.toHex(md.digest());
+        Trace.fileRead(length);
+        Trace.hashed(length);
+        if (contains(id)) {
+            tmp.delete();
+        } else {
+            File dest = objectFile(id);
+            dest.getParentFile().mkdirs();
+            install(tmp, dest);
+            ObjectIndex.add(id, type);
+            Trace.count(Trace.Counter.OBJECTS_WRITTEN);
+            Trace.count(Trace.Counter.OBJECT_BYTES_WRITTEN, length);
+        }
+        return id;
+    }
+
+    /** Returns the body of the object ID, or null if there is no such object
+     *  or it is not of kind TYPE. */
+    static byte[] read(String id, String type) {
+        return Trace.time("object-read", () -> {
+            byte[] body = readBody(id, type);
+            if (body != null) {
+                Trace.count(Trace.Counter.OBJECTS_READ);
+                Trace.count(Trace.Counter.OBJECT_BYTES_READ, body.length);
+            }
+            return body;
+        });
+    }
+
+    /** Returns the body of the object ID, or null if there is no such object
+     *  or it is not of kind TYPE, without tracing. The type of a packed
+     *  object is read from its entry header, so an object of another kind
+     *  is never resolved. */
+    private static byte[] readBody(String id, String type) {
+        if (!isID(id)) {
+            return null;
+        } else if (!objectFile(id).isFile()) {
+            for (PackFile pack : PackFile.packs()) {
+                if (pack.contains(id)) {
+                    return type.equals(pack.typeOf(id)) ? pack.read(id).body : null;
+                }
+            }
+            return null;
+        }
+        try (InputStream in = inflate(objectFile(id))) {
+            String[] header = readHeader(in);
+            if (!header[0].equals(type)) {
+                return null;
+            }
+            int length = Integer.parseInt(header[1]);
+            byte[] body = in.readNBytes(length);
+            if (body.length != length) {
+                throw new GitletException("Corrupt object " + id + ".");
+            }
+            return body;
+        } catch (IOException | NumberFormatException excp) {
+            throw new GitletException("Corrupt object " + id + ".");
+        }
+    }
+
+    /** Returns a stream of the body of the object ID, or null if there is no
+     *  such object or it is not of kind TYPE. Loose objects and objects
+     *  stored whole in a pack are inflated as the stream is read, so the
+     *  body is never held in memory. The caller must close the stream. */
+    static InputStream open(String id, String type) {
+        if (!isID(id)) {
+            return null;
+        } else if (!objectFile(id).isFile()) {
+            for (PackFile pack : PackFile.packs()) {
+                if (pack.contains(id)) {
+                    if (!type.equals(pack.typeOf(id))) {
+                        return null;
+                    }
+                    Trace.count(Trace.Counter.OBJECTS_READ);
+                    return pack.open(id);
+                }
+            }
+            return null;
+        }
+        try {
+            InputStream in = inflate(objectFile(id));
+            if (!readHeader(in)[0].equals(type)) {
+                in.close();
+                return null;
+            }
+            Trace.count(Trace.Counter.OBJECTS_READ);
+            return in;
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt object " + id + ".");
+        }
+    }
+
+    /** Writes the contents of the blob ID to DEST, replacing it if present
+     *  and creating its directory if need be. The contents are streamed
+     *  rather than read into memory. */
+    static void copyTo(String id, File dest) {
+        InputStream in = open(id, BLOB);
+        if (in == null) {
+            throw new GitletException("No blob " + id + ".");
+        }
+        File parent = dest.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try {
+            Trace.time("copy-to-file", () -> {
+                try (InputStream body = in) {
+                    long length = Files.copy(body, dest.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                    Trace.count(Trace.Counter.OBJECT_BYTES_READ, length);
+                    Trace.fileWritten(length);
+                }
+            });
+        } catch (IOException excp) {
+            throw new GitletException("Could not write " + dest + ".");
+        }
+    }
+
+    /** Returns the length of the body of the object ID, or -1 if there is
+     *  no such object. */
+    static long size(String id) {
+        if (!isID(id)) {
+            return -1;
+        } else if (!objectFile(id).isFile()) {
+            for (PackFile pack : PackFile.packs()) {
+                if (pack.contains(id)) {
+                    return pack.sizeOf(id);
+                }
+            }
+            return -1;
+        }
+        try (InputStream in = inflate(objectFile(id))) {
+            return Long.parseLong(readHeader(in)[1]);
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt object " + id + ".");
+        }
+    }
+
+    /** Returns the kind of the object ID, or null if there is no such object.
+     *  Only the header is inflated. */
+    static String readType(String id) {
+        if (!isID(id)) {
+            return null;
+        } else if (!objectFile(id).isFile()) {
+            for (PackFile pack : PackFile.packs()) {
+                String type = pack.typeOf(id);
+                if (type != null) {
+                    return type;
+                }
+            }
+            return null;
+        }
+        try (InputStream in = inflate(objectFile(id))) {
+            return readHeader(in)[0];
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt object " + id + ".");
+        }
+    }
+
+    /** Returns true iff ID has the form of a full object ID. */
+    private static boolean isID(String id) {
+        return id.length() == Utils.UID_LENGTH && IdTable.isHex(id);
+    }
+
+    /** Returns a stream that inflates the loose object file FILE. Closing the
+     *  stream releases its inflater. */
+    private static InputStream inflate(File file) throws IOException {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(new FileInputStream(file), inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /** Returns the IDs of all stored objects that start with PREFIX, in
+     *  sorted order. */
+    static List<String> find(String prefix) {
+        return ObjectIndex.find(prefix);
+    }
+
+    /** Returns the IDs of all stored objects of kind TYPE. */
+    static List<String> list(String type) {
+        return ObjectIndex.list(type);
+    }
+
+    /** Moves the flat .gitlet/COMMITS and .gitlet/BLOBS directories of a
+     *  repository created by an older Gitlet into the object store, then
+     *  deletes them. Does nothing for repositories already migrated. */
+    static void migrate() {
+        File commits = new File(".gitlet/COMMITS");
+        File blobs = new File(".gitlet/BLOBS");
+        if (!commits.isDirectory() && !blobs.isDirectory()) {
+            return;
+        }
+        OBJECTS.mkdirs();
+        if (commits.isDirectory()) {
+            for (String id : Utils.plainFilenamesIn(commits)) {
+                File old = new File(commits, id);
+                write(COMMIT, id, Utils.readContents(old));
+                old.delete();
+            }
+            commits.delete();
+        }
+        if (blobs.isDirectory()) {
+            for (String id : Utils.plainFilenamesIn(blobs)) {
+                File old = new File(blobs, id);
+                Blob b = (Blob) Gitlet.deserialize(old.getPath());
+                write(BLOB, id, b.getContents());
+                old.delete();
+            }
+            blobs.delete();
+        }
+    }
+
+    /** Returns the encoded header of an object of kind TYPE whose body is
+     *  LENGTH bytes long. */
+    static byte[] header(String type, long length) {
+        return (type + " " + length + "\0").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Reads an object header from IN, returning its type and length.
+     *  Throws IOException unless the length is a number that fits in a
+     *  long. */
+    static String[] readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) > 0) {
+            header.write(c);
+        }
+        String[] fields = header.toString(StandardCharsets.US_ASCII).split(" ");
+        if (c != 0 || fields.length != 2
+            || !fields[1].matches("[0-9]{1,18}")) {
+            throw new IOException("bad object header");
+        }
+        return fields;
+    }
+
+    /** Atomically renames TMP to DEST. If another writer installed the same
+     *  object first, TMP is simply discarded. */
+    static void install(File tmp, File dest) {
+        try {
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmp.delete();
+            if (!dest.isFile()) {
+                throw new GitletException("Could not write object " + dest.getName() + ".");
+            }
+        }
+    }
+}
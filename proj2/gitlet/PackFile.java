@@ -0,0 +1,680 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A pack: many objects consolidated into one file, most of them stored as
+ *  deltas against a similar object earlier in the same pack.
+ *
+ *  The pack file .gitlet/objects/pack/pack-ID.pack holds the magic "PACK",
+ *  a version and an object count, then one entry per object: a type byte
+ *  (the object's type code, or TYPE_DELTA),
+ *  the varint length of the object's body, for deltas the varint distance
+ *  back to the base entry, and finally the deflated body or delta. A SHA-1
+ *  checksum of everything before it ends the file. Opening a pack checks
+ *  its header and length against its index; repack checks the checksums
+ *  of the packs it replaces.
+ *
+ *  The index pack-ID.idx is an IdTable (magic "GIDX") of the pack's
+ *  objects, followed by the offset of each one's entry as a long. Indices
+ *  written with version 1, which lacked the fan-out table, are upgraded
+ *  when first opened, in memory only by commands holding a shared lock.
+ */
+class PackFile {
+
+    /** The directory holding all packs. */
+    static final File PACK_DIR = new File(ObjectStore.OBJECTS, "pack");
+
+    /** The longest chain of deltas repack will create. */
+    static final int MAX_DEPTH = 50;
+
+    /** Entry type of deltas. Other entries use the type codes of ObjectStore. */
+    private static final int TYPE_DELTA = 3;
+    /** Format version of packs. */
+    private static final int VERSION = 1;
+    /** Length of the header of a pack: magic, version and object count. */
+    private static final int HEADER = 12;
+    /** Length of the checksum that ends a pack. */
+    private static final int TRAILER = 20;
+    /** Format version of pack indices. */
+    private static final int INDEX_VERSION = 2;
+    /** Upper bound on the bytes kept in the delta-base cache. */
+    private static final long CACHE_LIMIT = 32L << 20;
+    /** Objects larger than this are never deltified, and are streamed
+     *  into the pack rather than read into memory. */
+    private static final long DELTA_LIMIT = 16L << 20;
+
+    /** The pack file itself. */
+    private final File _pack;
+    /** The mapped index of this pack. */
+    private final IdTable _index;
+
+    /** Recently resolved objects, keyed by pack name and offset, so that
+     *  delta chains sharing a prefix are not resolved twice. */
+    private static final LinkedHashMap<String, Unpacked> BASE_CACHE =
+        new LinkedHashMap<>(64, 0.75f, true);
+    /** The total size of the bodies in BASE_CACHE. */
+    private static long _cacheBytes;
+
+    /** The type and body of an object read from a pack. */
+    static class Unpacked {
+        /** The object's type name. */
+        final String type;
+        /** The object's body. */
+        final byte[] body;
+
+        /** An object of kind TYPE with contents BODY. */
+        Unpacked(String type, byte[] body) {
+            this.type = type;
+            this.body = body;
+        }
+    }
+
+    /** Opens the pack whose index is IDX. */
+    private PackFile(File idx) {
+        String name = idx.getName();
+        _pack = new File(idx.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        try {
+            if (readVersion(idx) == 1) {
+                _index = upgradeIndex(idx);
+            } else {
+                _index = new IdTable(idx, "GIDX", INDEX_VERSION);
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt pack index " + name + ".");
+        }
+        checkLength();
+    }
+
+    /** Checks that the pack has a header matching its index, and that it
+     *  is long enough to hold an entry at every offset the index lists
+     *  followed by the checksum, so that a truncated pack is reported when
+     *  opened rather than read as garbled objects. */
+    private void checkLength() {
+        long length = _pack.length();
+        long last = HEADER - 1;
+        for (int k = 0; k < _index.count(); k += 1) {
+            long offset = offset(k);
+            if (offset < HEADER) {
+                last = length;
+                break;
+            }
+            last = Math.max(last, offset);
+        }
+        boolean ok = last < length - TRAILER;
+        if (ok) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(_pack))) {
+                byte[] magic = new byte[4];
+                in.readFully(magic);
+                ok = new String(magic, StandardCharsets.US_ASCII).equals("PACK")
+                    && in.readInt() == VERSION && in.readInt() == _index.count();
+            } catch (IOException excp) {
+                ok = false;
+            }
+        }
+        if (!ok) {
+            throw new GitletException("Corrupt pack " + _pack.getName() + ".");
+        }
+    }
+
+    /** Checks the SHA-1 checksum that ends the pack against the rest of its
+     *  contents. This reads the whole pack, so it is done only before the
+     *  pack's objects are copied elsewhere and the pack removed. */
+    private void verify() {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(_pack),
+                ObjectStore.BUFFER_SIZE)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long remaining = _pack.length() - TRAILER;
+            byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new IOException("truncated pack");
+                }
+                md.update(buffer, 0, n);
+                remaining -= n;
+            }
+            if (!Arrays.equals(md.digest(), in.readNBytes(TRAILER))) {
+                throw new IOException("checksum mismatch");
+            }
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new GitletException("Corrupt pack " + _pack.getName() + ".");
+        }
+    }
+
+    /** Returns the format version of the pack index IDX. */
+    private static int readVersion(File idx) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(idx))) {
+            in.readInt();
+            return in.readInt();
+        }
+    }
+
+    /** Returns true iff some pack index of the repository is in version 1
+     *  format, and so will be rewritten when first opened. */
+    static boolean hasOldIndex() {
+        List<String> names = Utils.plainFilenamesIn(PACK_DIR);
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    if (name.endsWith(".idx") && readVersion(new File(PACK_DIR, name)) == 1) {
+                        return true;
+                    }
+                } catch (IOException excp) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the version 1 pack index IDX in the current format, first
+     *  rewriting IDX in that format unless the running command holds a
+     *  shared lock. */
+    private static IdTable upgradeIndex(File idx) throws IOException {
+        Map<String, Long> offsets = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(idx)))) {
+            in.readInt();
+            in.readInt();
+            int count = in.readInt();
+            byte[] raw = new byte[IdTable.RAW_ID_LENGTH];
+            for (int k = 0; k < count; k += 1) {
+                in.readFully(raw);
+                offsets.put(IdTable.toHex(raw), in.readLong());
+            }
+        }
+        ByteArrayOutputStream upgraded = new ByteArrayOutputStream();
+        writeIndex(upgraded, offsets);
+        byte[] bytes = upgraded.toByteArray();
+        if (!RepoLock.isShared()) {
+            File tmp = new File(PACK_DIR, "tmp_idx");
+            Utils.writeContents(tmp, bytes);
+            ObjectStore.install(tmp, idx);
+        }
+        return new IdTable(ByteBuffer.wrap(bytes), "GIDX", INDEX_VERSION);
+    }
+
+    /** The packs of this repository, or null if not yet loaded. */
+    private static List<PackFile> _packs;
+    /** The Utils.stamp of PACK_DIR when _packs was loaded. */
+    private static String _stamp;
+
+    /** Returns all packs in the repository. */
+    static synchronized List<PackFile> packs() {
+        if (_packs == null) {
+            _stamp = Utils.stamp(PACK_DIR);
+            List<PackFile> packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(PACK_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        packs.add(new PackFile(new File(PACK_DIR, name)));
+                    }
+                }
+            }
+            _packs = packs;
+        }
+        return _packs;
+    }
+
+    /** Forgets the loaded packs if packs have since been added or removed. */
+    static synchronized void refresh() {
+        if (_packs != null && !Utils.stamp(PACK_DIR).equals(_stamp)) {
+            reload();
+        }
+    }
+
+    /** Forgets the loaded packs, so that they are rescanned on next use. */
+    static synchronized void reload() {
+        _packs = null;
+        synchronized (BASE_CACHE) {
+            BASE_CACHE.clear();
+            _cacheBytes = 0;
+        }
+    }
+
+    /** Returns true iff this pack holds the object ID. */
+    boolean contains(String id) {
+        return _index.search(id) >= 0;
+    }
+
+    /** Returns the IDs in this pack that start with PREFIX, in sorted order. */
+    List<String> find(String prefix) {
+        List<String> result = new ArrayList<>();
+        int[] range = _index.range(prefix);
+        for (int k = range[0]; k < range[1]; k += 1) {
+            result.add(_index.idAt(k));
+        }
+        return result;
+    }
+
+    /** Returns the offset of the entry for the Kth object in the index. */
+    private long offset(int k) {
+        return _index.buffer().getLong(_index.dataStart() + 8 * k);
+    }
+
+    /** Returns the object ID from this pack, or null if it is not here. */
+    Unpacked read(String id) {
+        int k = _index.search(id);
+        return k < 0 ? null : readAt(offset(k));
+    }
+
+    /** Returns the type of the object ID in this pack, or null if it is
+     *  not here. Only entry headers are read, so no delta is resolved. */
+    String typeOf(String id) {
+        int k = _index.search(id);
+        return k < 0 ? null : ObjectStore.typeName((int) header(offset(k))[0]);
+    }
+
+    /** Returns the length of the body of the object ID in this pack, or -1
+     *  if it is not here. */
+    long sizeOf(String id) {
+        int k = _index.search(id);
+        return k < 0 ? -1 : header(offset(k))[1];
+    }
+
+    /** Returns the type code of the object whose entry starts at OFFSET,
+     *  found by following the bases of deltas, and the length of its body. */
+    private long[] header(long offset) {
+        long size = -1;
+        try (RandomAccessFile file = new RandomAccessFile(_pack, "r")) {
+            for (int depth = 0; depth <= MAX_DEPTH; depth += 1) {
+                file.seek(offset);
+                InputStream in = new BufferedInputStream(Channels.newInputStream(file.getChannel()));
+                int type = in.read();
+                long length = readVarint(in);
+                size = size < 0 ? length : size;
+                if (type != TYPE_DELTA) {
+                    return new long[] { type, size };
+                }
+                offset -= readVarint(in);
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt pack " + _pack.getName() + ".");
+        }
+        throw new GitletException("Delta chain too long in " + _pack.getName() + ".");
+    }
+
+    /** Returns a stream of the body of the object ID in this pack, or null
+     *  if it is not here. An object stored whole is inflated as the stream
+     *  is read; a delta is resolved in memory first. */
+    InputStream open(String id) {
+        int k = _index.search(id);
+        if (k < 0) {
+            return null;
+        }
+        long offset = offset(k);
+        try {
+            RandomAccessFile file = new RandomAccessFile(_pack, "r");
+            file.seek(offset);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(file.getChannel()),
+                    ObjectStore.BUFFER_SIZE);
+            int type = in.read();
+            readVarint(in);
+            if (type == TYPE_DELTA) {
+                file.close();
+                return new ByteArrayInputStream(readAt(offset).body);
+            }
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, ObjectStore.BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt pack " + _pack.getName() + ".");
+        }
+    }
+
+    /** Returns the object whose entry starts at OFFSET, resolving at most
+     *  MAX_DEPTH deltas. */
+    private Unpacked readAt(long offset) {
+        List<byte[]> deltas = new ArrayList<>();
+        List<Long> chain = new ArrayList<>();
+        Unpacked base = null;
+        try (RandomAccessFile file = new RandomAccessFile(_pack, "r")) {
+            while (base == null) {
+                base = cached(offset);
+                if (base != null) {
+                    break;
+                }
+                if (chain.size() > MAX_DEPTH) {
+                    throw new GitletException("Delta chain too long in " + _pack.getName() + ".");
+                }
+                file.seek(offset);
+                InputStream in = new BufferedInputStream(Channels.newInputStream(file.getChannel()));
+                int type = in.read();
+                long size = readVarint(in);
+                if (type == TYPE_DELTA) {
+                    long baseOffset = offset - readVarint(in);
+                    deltas.add(inflate(in, -1));
+                    chain.add(offset);
+                    offset = baseOffset;
+                } else {
+                    base = new Unpacked(ObjectStore.typeName(type), inflate(in, size));
+                    remember(offset, base);
+                }
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt pack " + _pack.getName() + ".");
+        }
+        for (int k = deltas.size() - 1; k >= 0; k -= 1) {
+            base = new Unpacked(base.type, Delta.apply(base.body, deltas.get(k)));
+            remember(chain.get(k), base);
+        }
+        return base;
+    }
+
+    /** Returns the cached object at OFFSET in this pack, or null. */
+    private Unpacked cached(long offset) {
+        synchronized (BASE_CACHE) {
+            return BASE_CACHE.get(_pack.getName() + offset);
+        }
+    }
+
+    /** Caches OBJ as the object at OFFSET in this pack, evicting the least
+     *  recently used objects to stay within CACHE_LIMIT. */
+    private void remember(long offset, Unpacked obj) {
+        synchronized (BASE_CACHE) {
+            if (BASE_CACHE.put(_pack.getName() + offset, obj) == null) {
+                _cacheBytes += obj.body.length;
+            }
+            Iterator<Map.Entry<String, Unpacked>> it = BASE_CACHE.entrySet().iterator();
+            while (_cacheBytes > CACHE_LIMIT && it.hasNext()) {
+                _cacheBytes -= it.next().getValue().body.length;
+                it.remove();
+            }
+        }
+    }
+
+    /** Repacks every object in the repository into a single new pack and
+     *  deletes the loose objects and old packs it replaces. File contents
+     *  and trees are stored as deltas against the previous version of the
+     *  same path, as recorded by the snapshots of successive commits. */
+    static void repack() {
+        List<String> ids = ObjectStore.find("");
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<Commit> commits = new ArrayList<>();
+        for (String id : ObjectStore.list(ObjectStore.COMMIT)) {
+            Commit c = Gitlet.getCommit(id);
+            if (c != null) {
+                commits.add(c);
+            }
+        }
+        commits.sort((a, b) -> a.getTime().equals(b.getTime())
+                ? a.getID().compareTo(b.getID()) : a.getTime().compareTo(b.getTime()));
+
+        Set<String> order = new LinkedHashSet<>();
+        Map<String, String> bases = new HashMap<>();
+        Map<String, String> lastVersion = new HashMap<>();
+        for (Commit c : commits) {
+            order.add(c.getID());
+        }
+        for (Commit c : commits) {
+            for (Map.Entry<String, ObjectId> entry : Tree.directories(c.getTree()).entrySet()) {
+                String tree = entry.getValue().name();
+                String previous = lastVersion.put(entry.getKey(), tree);
+                if (order.add(tree) && previous != null && !previous.equals(tree)) {
+                    bases.put(tree, previous);
+                }
+            }
+            for (Map.Entry<String, ObjectId> entry : c.getSnapshot().entrySet()) {
+                String blob = entry.getValue().name();
+                String previous = lastVersion.put(entry.getKey(), blob);
+                if (order.add(blob)) {
+                    if (previous != null && !previous.equals(blob)) {
+                        bases.put(blob, previous);
+                    }
+                }
+            }
+        }
+        order.addAll(ids);
+        write(order, bases);
+    }
+
+    /** Writes the objects ORDER into a new pack, storing each object that
+     *  has an entry in BASES as a delta against it when that saves space,
+     *  then removes the loose objects and packs it supersedes. */
+    private static void write(Set<String> order, Map<String, String> bases) {
+        List<PackFile> old = new ArrayList<>(packs());
+        for (PackFile p : old) {
+            p.verify();
+        }
+        PACK_DIR.mkdirs();
+        File tmpPack = new File(PACK_DIR, "tmp_pack");
+        Map<String, Long> offsets = new HashMap<>();
+        Map<String, Integer> depths = new HashMap<>();
+        String name = "pack-" + Utils.sha1(new ArrayList<Object>(new TreeSet<>(order)));
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (CountingOutputStream counter = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpPack)));
+                 DataOutputStream out = new DataOutputStream(new DigestOutputStream(counter, md))) {
+                out.writeBytes("PACK");
+                out.writeInt(VERSION);
+                out.writeInt(order.size());
+                Map<String, byte[]> recent = new LinkedHashMap<>();
+                for (String id : order) {
+                    String type = ObjectStore.readType(id);
+                    long size = ObjectStore.size(id);
+                    if (size > DELTA_LIMIT) {
+                        out.flush();
+                        offsets.put(id, counter.count());
+                        depths.put(id, MAX_DEPTH);
+                        out.write(ObjectStore.typeCode(type));
+                        writeVarint(out, size);
+                        writeStream(out, id, type);
+                        continue;
+                    }
+                    byte[] body = ObjectStore.read(id, type);
+                    byte[] data = body;
+                    int entryType = ObjectStore.typeCode(type);
+                    String base = bases.get(id);
+                    int depth = 0;
+                    if (base != null && offsets.containsKey(base)
+                            && depths.get(base) < MAX_DEPTH && ObjectStore.size(base) <= DELTA_LIMIT) {
+                        byte[] baseBody = recent.get(base);
+                        if (baseBody == null) {
+                            baseBody = ObjectStore.read(base, ObjectStore.readType(base));
+                        }
+                        byte[] delta = Delta.create(baseBody, body);
+                        if (delta.length < body.length / 2) {
+                            data = delta;
+                            entryType = TYPE_DELTA;
+                            depth = depths.get(base) + 1;
+                        }
+                    }
+                    out.flush();
+                    long offset = counter.count();
+                    offsets.put(id, offset);
+                    depths.put(id, depth);
+                    out.write(entryType);
+                    writeVarint(out, body.length);
+                    if (entryType == TYPE_DELTA) {
+                        writeVarint(out, offset - offsets.get(base));
+                    }
+                    Deflater compressor = new Deflater(Deflater.BEST_COMPRESSION);
+                    DeflaterOutputStream deflater = new DeflaterOutputStream(out, compressor);
+                    deflater.write(data);
+                    deflater.finish();
+                    compressor.end();
+                    recent.put(id, body);
+                    if (recent.size() > 2 * MAX_DEPTH) {
+                        recent.remove(recent.keySet().iterator().next());
+                    }
+                }
+                out.flush();
+                counter.write(md.digest());
+            }
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            tmpPack.delete();
+            throw new GitletException("Could not write pack.");
+        }
+        File pack = new File(PACK_DIR, name + ".pack");
+        File idx = new File(PACK_DIR, name + ".idx");
+        File tmpIdx = new File(PACK_DIR, "tmp_idx");
+        writeIndex(tmpIdx, offsets);
+        ObjectStore.install(tmpPack, pack);
+        ObjectStore.install(tmpIdx, idx);
+
+        for (PackFile p : old) {
+            if (!p._pack.equals(pack)) {
+                p._pack.delete();
+                String packName = p._pack.getName();
+                new File(PACK_DIR, packName.substring(0, packName.length() - 5) + ".idx").delete();
+            }
+        }
+        for (String id : order) {
+            File loose = ObjectStore.objectFile(id);
+            if (loose.delete()) {
+                loose.getParentFile().delete();
+            }
+        }
+        reload();
+    }
+
+    /** Writes the body of the object ID of kind TYPE to OUT, deflated, as it
+     *  is streamed from the object store. */
+    private static void writeStream(OutputStream out, String id, String type) throws IOException {
+        Deflater compressor = new Deflater(Deflater.BEST_COMPRESSION);
+        try (InputStream in = ObjectStore.open(id, type)) {
+            DeflaterOutputStream deflater = new DeflaterOutputStream(out, compressor,
+                    ObjectStore.BUFFER_SIZE);
+            in.transferTo(deflater);
+            deflater.finish();
+        } finally {
+            compressor.end();
+        }
+    }
+
+    /** Writes an index of OFFSETS, keyed by object ID, to IDX. */
+    private static void writeIndex(File idx, Map<String, Long> offsets) {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(idx))) {
+            writeIndex(out, offsets);
+        } catch (IOException excp) {
+            throw new GitletException("Could not write pack index.");
+        }
+    }
+
+    /** Writes to OUT a pack index of the objects whose entries start at
+     *  OFFSETS, keyed by ID. */
+    private static void writeIndex(OutputStream out, Map<String, Long> offsets)
+            throws IOException {
+        List<String> ids = new ArrayList<>(offsets.keySet());
+        Collections.sort(ids);
+        DataOutputStream data = new DataOutputStream(out);
+        IdTable.write(data, "GIDX", INDEX_VERSION, ids);
+        for (String id : ids) {
+            data.writeLong(offsets.get(id));
+        }
+        data.flush();
+    }
+
+    /** Returns the inflated data starting at the current position of IN.
+     *  SIZE is its length, or -1 if unknown. */
+    private static byte[] inflate(InputStream in, long size) throws IOException {
+        Inflater decompressor = new Inflater();
+        try {
+            InflaterInputStream inflater = new InflaterInputStream(in, decompressor);
+            if (size >= 0) {
+                byte[] result = inflater.readNBytes((int) size);
+                if (result.length != size) {
+                    throw new IOException("truncated entry");
+                }
+                return result;
+            }
+            return inflater.readAllBytes();
+        } finally {
+            decompressor.end();
+        }
+    }
+
+    /** Writes the non-negative VALUE to OUT as a varint. */
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Delta.writeVarint(bytes, value);
+        bytes.writeTo(out);
+    }
+
+    /** Reads a varint from IN. */
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new IOException("truncated varint");
+            }
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /** An output stream that counts the bytes written through it. */
+    private static class CountingOutputStream extends FilterOutputStream {
+        /** Bytes written so far. */
+        private long _count;
+
+        /** Counts the bytes written to OUT. */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            _count += len;
+        }
+
+        /** Returns the number of bytes written so far. */
+        long count() {
+            return _count;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/** The branches of a repository and its HEAD.
+ *
+ *  Each branch is a text file .gitlet/refs/heads/NAME holding the ID of
+ *  the commit at its head, or a line "ID NAME" in .gitlet/packed-refs,
+ *  which holds branches in sorted order; a file in refs/heads takes
+ *  precedence over a line in packed-refs. .gitlet/HEAD holds
+ *  "ref: refs/heads/NAME" for the current branch NAME.
+ *
+ *  A branch is only changed by creating NAME.lock next to its file,
+ *  failing if it already exists, checking that the branch still has the
+ *  value the caller expects, writing the new value to the lock file and
+ *  renaming it over the branch's file. Concurrent updates of one branch
+ *  therefore fail instead of overwriting each other, and updates of
+ *  different branches do not touch the same files.
+ */
+class Refs {
+
+    /** The file naming the current branch. */
+    static final File HEAD = new File(".gitlet/HEAD");
+    /** The directory of branch files. */
+    static final File HEADS = new File(".gitlet/refs/heads");
+    /** The file of packed branches. */
+    static final File PACKED = new File(".gitlet/packed-refs");
+
+    /** Prefix of the contents of HEAD. */
+    private static final String HEAD_PREFIX = "ref: refs/heads/";
+    /** Suffix of lock files. */
+    private static final String LOCK = ".lock";
+
+    /** Returns the name of the current branch. */
+    static String head() {
+        return ObjectCache.ref("HEAD", () -> {
+            String text = new String(Utils.readContents(HEAD), StandardCharsets.UTF_8).trim();
+            if (!text.startsWith(HEAD_PREFIX)) {
+                throw new GitletException("Corrupt HEAD.");
+            }
+            return text.substring(HEAD_PREFIX.length());
+        });
+    }
+
+    /** Makes BRANCH the current branch. */
+    static void setHead(String branch) {
+        File lock = lock(HEAD);
+        try {
+            write(lock, HEAD_PREFIX + branch + "\n");
+            install(lock, HEAD);
+        } finally {
+            lock.delete();
+            ObjectCache.invalidateRefs();
+        }
+    }
+
+    /** Returns the ID of the commit at the head of branch NAME, or null if
+     *  there is no such branch, as there never is if NAME is not a valid
+     *  branch name. */
+    static String get(String name) {
+        if (!isValidName(name)) {
+            return null;
+        }
+        return ObjectCache.ref("refs/heads/" + name, () -> read(name));
+    }
+
+    /** Returns all branches, mapping their names to the IDs of the commits
+     *  at their heads. */
+    static Map<String, String> all() {
+        TreeMap<String, String> result = new TreeMap<>(packed());
+        String[] names = HEADS.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (!name.endsWith(LOCK)) {
+                String id = readFile(new File(HEADS, name));
+                if (id != null) {
+                    result.put(name, id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Sets branch NAME to the commit ID, provided it is currently at the
+     *  commit EXPECTED, or does not exist if EXPECTED is null. Creates the
+     *  branch if EXPECTED is null. */
+    static void update(String name, String expected, String id) {
+        checkName(name);
+        File ref = new File(HEADS, name);
+        HEADS.mkdirs();
+        File lock = lock(ref);
+        try {
+            check(name, expected);
+            write(lock, id + "\n");
+            install(lock, ref);
+        } finally {
+            lock.delete();
+            ObjectCache.invalidateRefs();
+        }
+    }
+
+    /** Deletes branch NAME, provided it is currently at the commit EXPECTED. */
+    static void delete(String name, String expected) {
+        checkName(name);
+        File ref = new File(HEADS, name);
+        HEADS.mkdirs();
+        File lock = lock(ref);
+        try {
+            check(name, expected);
+            if (packed().containsKey(name)) {
+                Map<String, String> packed = new TreeMap<>(packed());
+                packed.remove(name);
+                writePacked(packed);
+            }
+            ref.delete();
+        } finally {
+            lock.delete();
+            ObjectCache.invalidateRefs();
+        }
+    }
+
+    /** Moves every branch file into packed-refs. */
+    static void pack() {
+        Map<String, String> all = all();
+        writePacked(all);
+        for (Map.Entry<String, String> branch : all.entrySet()) {
+            File ref = new File(HEADS, branch.getKey());
+            if (!ref.isFile()) {
+                continue;
+            }
+            File lock;
+            try {
+                lock = lock(ref);
+            } catch (GitletException excp) {
+                continue;
+            }
+            try {
+                if (branch.getValue().equals(readFile(ref))) {
+                    ref.delete();
+                }
+            } finally {
+                lock.delete();
+            }
+        }
+        ObjectCache.invalidateRefs();
+    }
+
+    /** Returns true iff NAME may name a branch. */
+    static boolean isValidName(String name) {
+        return !name.isEmpty() && !name.startsWith(".") && !name.endsWith(LOCK)
+            && name.chars().noneMatch((c) -> c == '/' || c == '\\' || c < ' ');
+    }
+
+    /** Throws a GitletException unless NAME is a valid branch name, so
+     *  that no name can reach a file outside HEADS. */
+    private static void checkName(String name) {
+        if (!isValidName(name)) {
+            throw new GitletException("A branch with that name does not exist.");
+        }
+    }
+
+    /** Converts the serialized branch map and HEAD of repositories made by
+     *  older versions of Gitlet to branch and HEAD files. */
+    @SuppressWarnings("unchecked")
+    static void migrate() {
+        File branches = new File(".gitlet/branches");
+        if (!branches.isFile()) {
+            return;
+        }
+        Map<String, String> map = (Map<String, String>) Gitlet.deserialize(branches.getPath());
+        HEADS.mkdirs();
+        writePacked(new TreeMap<>(map));
+        String head = new String(Utils.readContents(HEAD), StandardCharsets.UTF_8);
+        if (!head.startsWith(HEAD_PREFIX)) {
+            setHead((String) Gitlet.deserialize(HEAD.getPath()));
+        }
+        branches.delete();
+        ObjectCache.invalidateRefs();
+    }
+
+    /** Throws a GitletException unless branch NAME is at the commit
+     *  EXPECTED, or does not exist if EXPECTED is null. */
+    private static void check(String name, String expected) {
+        if (!Objects.equals(read(name), expected)) {
+            throw new GitletException("Branch " + name + " was changed by another command.");
+        }
+    }
+
+    /** Reads the current value of branch NAME, bypassing the cache. */
+    private static String read(String name) {
+        String id = readFile(new File(HEADS, name));
+        return id != null ? id : packed().get(name);
+    }
+
+    /** Returns the commit ID in the branch file REF, or null if there is none. */
+    private static String readFile(File ref) {
+        if (!ref.isFile()) {
+            return null;
+        }
+        return new String(Utils.readContents(ref), StandardCharsets.UTF_8).trim();
+    }
+
+    /** Returns the branches in packed-refs. */
+    private static Map<String, String> packed() {
+        return ObjectCache.ref("packed-refs", () -> {
+            TreeMap<String, String> result = new TreeMap<>();
+            if (PACKED.isFile()) {
+                String text = new String(Utils.readContents(PACKED), StandardCharsets.UTF_8);
+                for (String line : text.split("\n")) {
+                    int space = line.indexOf(' ');
+                    if (space > 0) {
+                        result.put(line.substring(space + 1), line.substring(0, space));
+                    }
+                }
+            }
+            return Collections.unmodifiableMap(result);
+        });
+    }
+
+    /** Replaces packed-refs with BRANCHES, under its lock. */
+    private static void writePacked(Map<String, String> branches) {
+        File lock = lock(PACKED);
+        try {
+            StringBuilder text = new StringBuilder();
+            for (Map.Entry<String, String> branch : new TreeMap<>(branches).entrySet()) {
+                text.append(branch.getValue()).append(' ').append(branch.getKey()).append('\n');
+            }
+            write(lock, text.toString());
+            install(lock, PACKED);
+        } finally {
+            lock.delete();
+            ObjectCache.invalidateRefs();
+        }
+    }
+
+    /** Creates and returns the lock file of FILE, throwing a
+     *  GitletException if it is already locked. */
+    private static File lock(File file) {
+        File lock = new File(file.getPath() + LOCK);
+        try {
+            Files.createFile(lock.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            throw new GitletException("Could not lock " + file.getName()
+                + "; another command may be running.");
+        } catch (IOException excp) {
+            throw new GitletException("Could not lock " + file.getName() + ".");
+        }
+        return lock;
+    }
+
+    /** Writes TEXT to FILE and forces it to disk. */
+    private static void write(File file, String text) {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException excp) {
+            throw new GitletException("Could not write " + file.getName() + ".");
+        }
+    }
+
+    /** Renames LOCK over FILE. */
+    private static void install(File lock, File file) {
+        try {
+            Files.move(lock.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new GitletException("Could not update " + file.getName() + ".");
+        }
+    }
+}
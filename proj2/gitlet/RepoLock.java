@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/** The lock on a repository held by the command running in it.
+ *
+ *  Commands that only read the repository (log, global-log, find, diff and
+ *  status) hold a shared lock on .gitlet/lock, so any number of them may
+ *  run at once; every other command holds an exclusive lock, so it runs
+ *  alone. A command that cannot get its lock retries until the number of
+ *  milliseconds given by GITLET_LOCK_TIMEOUT (by default, DEFAULT_TIMEOUT)
+ *  has passed, and then fails without touching the repository. The locks
+ *  are released by the operating system if a command dies holding one.
+ */
+class RepoLock implements AutoCloseable {
+
+    /** The file on which commands lock. */
+    static final File FILE = new File(".gitlet/lock");
+
+    /** Milliseconds to wait for a lock when GITLET_LOCK_TIMEOUT is unset. */
+    private static final long DEFAULT_TIMEOUT = 10000;
+    /** Longest pause, in milliseconds, between attempts to get a lock. */
+    private static final long MAX_PAUSE = 50;
+
+    /** The lock held by the running command, or null if there is none. */
+    private static RepoLock _held;
+
+    /** Returns true iff the running command holds a shared lock, and so must
+     *  not modify the repository. */
+    static boolean isShared() {
+        return _held != null && _held._lock.isShared();
+    }
+
+    /** Returns a lock on the current repository, shared if SHARED and
+     *  otherwise exclusive, waiting for other commands to release theirs. */
+    static RepoLock acquire(boolean shared) {
+        long timeout = DEFAULT_TIMEOUT;
+        String setting = Main.getenv("GITLET_LOCK_TIMEOUT");
+        if (setting != null) {
+            try {
+                timeout = Long.parseLong(setting);
+            } catch (NumberFormatException excp) {
+                throw new GitletException("GITLET_LOCK_TIMEOUT must be a number of milliseconds.");
+            }
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException excp) {
+            throw new GitletException("Could not open " + FILE + ".");
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        long pause = 1;
+        try {
+            while (true) {
+                FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+                if (lock != null) {
+                    _held = new RepoLock(channel, lock);
+                    return _held;
+                } else if (System.currentTimeMillis() >= deadline) {
+                    break;
+                }
+                Thread.sleep(Math.min(pause, Math.max(1, deadline - System.currentTimeMillis())));
+                pause = Math.min(pause * 2, MAX_PAUSE);
+            }
+        } catch (IOException | InterruptedException excp) {
+            /* Fall through to the failure below. */
+        }
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            /* Nothing was locked. */
+        }
+        throw new GitletException("Another gitlet command is using this repository.");
+    }
+
+    /** Returns true iff a command that only reads the current repository
+     *  may do so under a shared lock: that is, iff nothing needs to be
+     *  converted from the formats of older versions of Gitlet and the
+     *  indices that commands build on first use already exist. */
+    static boolean canShare() {
+        return Dirstate.INDEX.isFile() && ObjectIndex.INDEX.isFile()
+            && CommitGraph.GRAPH.isFile() && CommitGraph.ORDER.isFile()
+            && MessageIndex.FILE.isFile() && ChangedPaths.FILTERS.isFile()
+            && !new File(".gitlet/branches").exists()
+            && !new File(".gitlet/COMMITS").exists()
+            && !new File(".gitlet/BLOBS").exists()
+            && !PackFile.hasOldIndex();
+    }
+
+    /** A lock LOCK held through CHANNEL. */
+    private RepoLock(FileChannel channel, FileLock lock) {
+        _channel = channel;
+        _lock = lock;
+    }
+
+    /** Releases this lock. */
+    @Override
+    public void close() {
+        if (_held == this) {
+            _held = null;
+        }
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            /* Closing the channel releases the lock regardless. */
+        }
+    }
+
+    /** The channel of FILE through which the lock is held. */
+    private final FileChannel _channel;
+    /** The lock. */
+    private final FileLock _lock;
+}
@@ -0,0 +1,309 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Counts of the work done by a command, and timings of its phases,
+ *  reported when the command ends.
+ *
+ *  Tracing is off unless the command is given the option --trace, or
+ *  GITLET_TRACE is set in the environment. The report is a single line of
+ *  JSON holding the command, its wall-clock time, each Counter, the hits
+ *  and misses of each ObjectCache cache and, for each named phase, the
+ *  number of times it ran and its total time, which includes the time of
+ *  any phases within it. It is written to the standard error, or to the
+ *  file GITLET_TRACE names if that is not "1". If GITLET_TRACE_EVENTS is
+ *  set, each run of a phase (up to MAX_EVENTS of them) is also written to
+ *  the file it names in the Chrome trace-event format, which chrome://tracing
+ *  and Perfetto display as a timeline of each thread.
+ *
+ *  Counters and phases may be recorded from any thread. While tracing is
+ *  off, recording does nothing.
+ */
+class Trace {
+
+    /** What is counted. */
+    enum Counter {
+        /** Objects read from the store, whole or as streams. */
+        OBJECTS_READ,
+        /** Bytes of the bodies of objects read whole or copied to files. */
+        OBJECT_BYTES_READ,
+        /** Objects added to the store. */
+        OBJECTS_WRITTEN,
+        /** Bytes of the bodies of objects added to the store. */
+        OBJECT_BYTES_WRITTEN,
+        /** SHA-1 hashes computed. */
+        HASHES,
+        /** Bytes hashed. */
+        HASHED_BYTES,
+        /** Working or repository files read whole or stored as objects. */
+        FILES_READ,
+        /** Bytes of those files. */
+        FILE_BYTES_READ,
+        /** Working or repository files written whole or from objects. */
+        FILES_WRITTEN,
+        /** Bytes of those files. */
+        FILE_BYTES_WRITTEN,
+        /** Directories listed. */
+        DIRECTORY_LISTINGS;
+
+        /** Returns the name of this counter in reports. */
+        String key() {
+            return name().toLowerCase();
+        }
+    }
+
+    /** Most phase runs written as trace events. */
+    static final int MAX_EVENTS = 100000;
+
+    /** The command-line option that turns tracing on. */
+    static final String OPTION = "--trace";
+
+    /** The run of a phase made while tracing is off, which records nothing. */
+    private static final Phase NONE = new Phase(null);
+
+    /** True while tracing. */
+    private static volatile boolean _enabled;
+    /** The time at which tracing started, in nanoseconds. */
+    private static long _start;
+    /** The value of each Counter, by ordinal. */
+    private static final AtomicLongArray COUNTS = new AtomicLongArray(Counter.values().length);
+    /** The number of runs and total nanoseconds of each phase, by name. */
+    private static final Map<String, long[]> PHASES = new TreeMap<>();
+    /** The trace events recorded: the name, thread, start and duration of
+     *  runs of phases. */
+    private static final List<Object[]> EVENTS = new ArrayList<>();
+    /** Number of runs of phases not recorded in EVENTS. */
+    private static long _dropped;
+
+    /** Starts tracing, forgetting everything previously recorded. */
+    static void start() {
+        for (int k = 0; k < COUNTS.length(); k += 1) {
+            COUNTS.set(k, 0);
+        }
+        synchronized (PHASES) {
+            PHASES.clear();
+            EVENTS.clear();
+            _dropped = 0;
+        }
+        _start = System.nanoTime();
+        _enabled = true;
+    }
+
+    /** Returns true iff tracing. */
+    static boolean enabled() {
+        return _enabled;
+    }
+
+    /** Adds 1 to COUNTER. */
+    static void count(Counter counter) {
+        count(counter, 1);
+    }
+
+    /** Adds N to COUNTER. */
+    static void count(Counter counter, long n) {
+        if (_enabled) {
+            COUNTS.addAndGet(counter.ordinal(), n);
+        }
+    }
+
+    /** Counts the reading of a file of LENGTH bytes. */
+    static void fileRead(long length) {
+        count(Counter.FILES_READ);
+        count(Counter.FILE_BYTES_READ, length);
+    }
+
+    /** Counts the writing of a file of LENGTH bytes. */
+    static void fileWritten(long length) {
+        count(Counter.FILES_WRITTEN);
+        count(Counter.FILE_BYTES_WRITTEN, length);
+    }
+
+    /** Counts the computing of a hash of LENGTH bytes. */
+    static void hashed(long length) {
+        count(Counter.HASHES);
+        count(Counter.HASHED_BYTES, length);
+    }
+
+    /** Work done as a run of a phase, returning a T and possibly throwing
+     *  an E. */
+    interface Work<T, E extends Exception> {
+        /** Does the work and returns its result. */
+        T run() throws E;
+    }
+
+    /** Work done as a run of a phase, returning nothing and possibly
+     *  throwing an E. */
+    interface Action<E extends Exception> {
+        /** Does the work. */
+        void run() throws E;
+    }
+
+    /** Returns the result of WORK, timed as a run of the phase NAME. */
+    static <T, E extends Exception> T time(String name, Work<T, E> work) throws E {
+        Phase phase = _enabled ? new Phase(name) : NONE;
+        try {
+            return work.run();
+        } finally {
+            phase.close();
+        }
+    }
+
+    /** Does ACTION, timed as a run of the phase NAME. */
+    static <E extends Exception> void time(String name, Action<E> action) throws E {
+        time(name, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /** A run of a phase. */
+    private static class Phase {
+
+        /** A run of the phase NAME, starting now. NAME is null for NONE. */
+        private Phase(String name) {
+            _name = name;
+            _begin = name == null ? 0 : System.nanoTime();
+        }
+
+        /** Ends this run and records it. */
+        void close() {
+            if (_name == null || !_enabled) {
+                return;
+            }
+            long duration = System.nanoTime() - _begin;
+            synchronized (PHASES) {
+                long[] totals = PHASES.computeIfAbsent(_name, (k) -> new long[2]);
+                totals[0] += 1;
+                totals[1] += duration;
+                if (EVENTS.size() < MAX_EVENTS) {
+                    EVENTS.add(new Object[] { _name, Thread.currentThread().getId(),
+                        _begin - _start, duration });
+                } else {
+                    _dropped += 1;
+                }
+            }
+        }
+
+        /** Name of the phase, or null. */
+        private final String _name;
+        /** Time at which this run started, in nanoseconds. */
+        private final long _begin;
+    }
+
+    /** Stops tracing the command ARGS and writes its reports, as requested
+     *  by the command's settings of GITLET_TRACE and GITLET_TRACE_EVENTS. */
+    static void finish(String[] args) {
+        if (!_enabled) {
+            return;
+        }
+        long wall = System.nanoTime() - _start;
+        _enabled = false;
+        String destination = Main.getenv("GITLET_TRACE");
+        String report = report(args, wall);
+        if (destination == null || destination.equals("1") || destination.isEmpty()) {
+            System.err.println(report);
+        } else {
+            write(new File(destination), report + "\n");
+        }
+        String events = Main.getenv("GITLET_TRACE_EVENTS");
+        if (events != null && !events.isEmpty()) {
+            write(new File(events), events());
+        }
+    }
+
+    /** Returns the JSON report of the command ARGS, which took WALL
+     *  nanoseconds. */
+    private static String report(String[] args, long wall) {
+        StringBuilder out = new StringBuilder("{\"command\":[");
+        for (int k = 0; k < args.length; k += 1) {
+            out.append(k == 0 ? "" : ",").append(quote(args[k]));
+        }
+        out.append("],\"wall_ms\":").append(millis(wall)).append(",\"counters\":{");
+        for (Counter counter : Counter.values()) {
+            out.append(counter.ordinal() == 0 ? "" : ",").append(quote(counter.key()))
+                .append(':').append(COUNTS.get(counter.ordinal()));
+        }
+        out.append("},\"caches\":{");
+        String sep = "";
+        for (Map.Entry<String, long[]> cache : ObjectCache.hitsAndMisses().entrySet()) {
+            out.append(sep).append(quote(cache.getKey())).append(":{\"hits\":")
+                .append(cache.getValue()[0]).append(",\"misses\":")
+                .append(cache.getValue()[1]).append('}');
+            sep = ",";
+        }
+        out.append("},\"phases\":{");
+        sep = "";
+        synchronized (PHASES) {
+            for (Map.Entry<String, long[]> phase : PHASES.entrySet()) {
+                out.append(sep).append(quote(phase.getKey())).append(":{\"count\":")
+                    .append(phase.getValue()[0]).append(",\"ms\":")
+                    .append(millis(phase.getValue()[1])).append('}');
+                sep = ",";
+            }
+        }
+        return out.append("}}").toString();
+    }
+
+    /** Returns the recorded runs of phases in the Chrome trace-event
+     *  format, as complete events timed in microseconds. */
+    private static String events() {
+        StringBuilder out = new StringBuilder("{\"traceEvents\":[");
+        String sep = "\n";
+        synchronized (PHASES) {
+            for (Object[] event : EVENTS) {
+                out.append(sep).append("{\"name\":").append(quote((String) event[0]))
+                    .append(",\"ph\":\"X\",\"pid\":1,\"tid\":").append(event[1])
+                    .append(",\"ts\":").append(micros((Long) event[2]))
+                    .append(",\"dur\":").append(micros((Long) event[3])).append('}');
+                sep = ",\n";
+            }
+            out.append("\n],\"otherData\":{\"dropped_events\":").append(_dropped).append("}}\n");
+        }
+        return out.toString();
+    }
+
+    /** Writes TEXT to FILE, reporting but otherwise ignoring failure so
+     *  that tracing never makes a command fail. */
+    private static void write(File file, String text) {
+        try {
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            System.err.println("Could not write trace to " + file + ".");
+        }
+    }
+
+    /** Returns NANOS as milliseconds with three decimals. */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /** Returns NANOS as microseconds with three decimals. */
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e3);
+    }
+
+    /** Returns S as a JSON string. */
+    static String quote(String s) {
+        StringBuilder out = new StringBuilder("\"");
+        for (int k = 0; k < s.length(); k += 1) {
+            char c = s.charAt(k);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < ' ') {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+}
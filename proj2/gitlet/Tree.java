@@ -0,0 +1,241 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The directories of commit snapshots, stored as tree objects so that a
+ *  directory whose contents did not change is shared between commits.
+ *
+ *  The body of a tree lists its entries sorted by name, each as a mode
+ *  ("100644" for a file, "40000" for a directory), a space, the name, a
+ *  zero byte and the raw 20-byte ID of the blob or tree it names. A tree's
+ *  ID is the SHA-1 hash of its type followed by its body, so that it never
+ *  coincides with the ID of a blob with the same bytes.
+ *
+ *  In memory a tree is a map from names to IDs in which the names of
+ *  subdirectories carry a trailing '/'.
+ */
+class Tree {
+
+    /** Mode of entries that are files. */
+    private static final String FILE_MODE = "100644";
+    /** Mode of entries that are directories. */
+    private static final String DIR_MODE = "40000";
+
+    /** The ID of the tree with no entries. */
+    static final String EMPTY = Utils.sha1(ObjectStore.TREE, new byte[0]);
+
+    /** The bodies of trees built by commands holding a shared lock, which
+     *  may not add them to the store, by ID. */
+    private static final Map<String, byte[]> UNWRITTEN = new ConcurrentHashMap<>();
+
+    /** Returns the entries of the tree ID, or no entries if ID is null. */
+    static TreeMap<String, ObjectId> read(ObjectId id) {
+        return read(id == null ? null : id.name());
+    }
+
+    /** Returns the entries of the tree ID, or no entries if ID is null. */
+    static TreeMap<String, ObjectId> read(String id) {
+        if (id == null) {
+            return new TreeMap<>();
+        }
+        return new TreeMap<>(ObjectCache.tree(id, Tree::parse));
+    }
+
+    /** Reads and returns the entries of the tree ID from the object store. */
+    private static TreeMap<String, ObjectId> parse(String id) {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        byte[] body = ObjectStore.read(id, ObjectStore.TREE);
+        if (body == null) {
+            body = UNWRITTEN.get(id);
+        }
+        if (body == null) {
+            throw new GitletException("Missing tree " + id + ".");
+        }
+        int pos = 0;
+        while (pos < body.length) {
+            int space = indexOf(body, (byte) ' ', pos);
+            int nul = indexOf(body, (byte) 0, space);
+            String mode = new String(body, pos, space - pos, StandardCharsets.US_ASCII);
+            String name = new String(body, space + 1, nul - space - 1, StandardCharsets.UTF_8);
+            ObjectId child = ObjectId.fromRaw(body, nul + 1);
+            result.put(mode.equals(DIR_MODE) ? name + "/" : name, child);
+            pos = nul + 1 + IdTable.RAW_ID_LENGTH;
+        }
+        return result;
+    }
+
+    /** Stores a tree with ENTRIES unless it is already present, and returns
+     *  its ID. A command holding a shared lock keeps the tree in memory
+     *  instead. */
+    static String write(Map<String, ObjectId> entries) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (Map.Entry<String, ObjectId> entry : new TreeMap<>(entries).entrySet()) {
+            String name = entry.getKey();
+            boolean dir = name.endsWith("/");
+            String mode = dir ? DIR_MODE : FILE_MODE;
+            body.writeBytes((mode + " ").getBytes(StandardCharsets.US_ASCII));
+            body.writeBytes((dir ? name.substring(0, name.length() - 1) : name)
+                    .getBytes(StandardCharsets.UTF_8));
+            body.write(0);
+            body.writeBytes(entry.getValue().raw());
+        }
+        byte[] bytes = body.toByteArray();
+        String id = Utils.sha1(ObjectStore.TREE, bytes);
+        if (RepoLock.isShared()) {
+            UNWRITTEN.put(id, bytes);
+        } else {
+            ObjectStore.write(ObjectStore.TREE, id, bytes);
+        }
+        return id;
+    }
+
+    /** Returns the ID of the tree that results from applying CHANGES to the
+     *  tree ID (an empty tree if ID is null), writing whatever new trees that
+     *  requires as write does. CHANGES maps '/'-separated paths to the IDs of their new
+     *  blobs, or to null for paths to remove. Only the trees of directories
+     *  containing changed paths are read or written; directories left empty
+     *  are dropped. */
+    static String update(String id, Map<String, ObjectId> changes) {
+        TreeMap<String, ObjectId> entries = read(id);
+        Map<String, Map<String, ObjectId>> subdirs = new HashMap<>();
+        for (Map.Entry<String, ObjectId> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, change.getValue());
+                }
+            } else {
+                subdirs.computeIfAbsent(path.substring(0, slash + 1), (k) -> new HashMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, ObjectId>> subdir : subdirs.entrySet()) {
+            ObjectId old = entries.get(subdir.getKey());
+            String child = update(old == null ? null : old.name(), subdir.getValue());
+            if (child.equals(EMPTY)) {
+                entries.remove(subdir.getKey());
+            } else {
+                entries.put(subdir.getKey(), ObjectId.fromHex(child));
+            }
+        }
+        return write(entries);
+    }
+
+    /** Returns the files of the tree ID, mapping each '/'-separated path to
+     *  the ID of its blob. */
+    static Map<String, ObjectId> flatten(String id) {
+        Map<String, ObjectId> result = new HashMap<>();
+        flatten(id, "", result);
+        return result;
+    }
+
+    /** Adds the files of the tree ID, whose paths start with PREFIX, to RESULT. */
+    private static void flatten(String id, String prefix, Map<String, ObjectId> result) {
+        for (Map.Entry<String, ObjectId> entry : ObjectCache.tree(id, Tree::parse).entrySet()) {
+            if (entry.getKey().endsWith("/")) {
+                flatten(entry.getValue().name(), prefix + entry.getKey(), result);
+            } else {
+                result.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** Returns the trees beneath and including the tree ID, mapping the path
+     *  of each directory, ending in '/' except for the root's "", to the ID
+     *  of its tree. */
+    static Map<String, ObjectId> directories(String id) {
+        Map<String, ObjectId> result = new HashMap<>();
+        directories(ObjectId.fromHex(id), "", result);
+        return result;
+    }
+
+    /** Adds the tree ID of the directory PREFIX and those of its
+     *  subdirectories to RESULT. */
+    private static void directories(ObjectId id, String prefix, Map<String, ObjectId> result) {
+        result.put(prefix, id);
+        for (Map.Entry<String, ObjectId> entry : read(id).entrySet()) {
+            if (entry.getKey().endsWith("/")) {
+                directories(entry.getValue(), prefix + entry.getKey(), result);
+            }
+        }
+    }
+
+    /** Returns the ID of the blob at PATH in the tree ID, or null if there
+     *  is none. Reads only the trees of the directories along PATH. */
+    static ObjectId lookup(String id, String path) {
+        int slash = path.indexOf('/');
+        Map<String, ObjectId> entries = ObjectCache.tree(id, Tree::parse);
+        if (slash < 0) {
+            return entries.get(path);
+        }
+        ObjectId child = entries.get(path.substring(0, slash + 1));
+        return child == null ? null : lookup(child.name(), path.substring(slash + 1));
+    }
+
+    /** Returns the ID of the blob or tree at PATH in the tree ID, or null if
+     *  there is neither. */
+    static ObjectId entry(String id, String path) {
+        int slash = path.indexOf('/');
+        Map<String, ObjectId> entries = ObjectCache.tree(id, Tree::parse);
+        if (slash < 0) {
+            ObjectId file = entries.get(path);
+            return file != null ? file : entries.get(path + "/");
+        }
+        ObjectId child = entries.get(path.substring(0, slash + 1));
+        return child == null ? null : entry(child.name(), path.substring(slash + 1));
+    }
+
+    /** Returns the paths of the files that differ between the trees A and
+     *  B, either of which may be null for an empty tree: those present in
+     *  only one, and those with different blobs. Subdirectories with the
+     *  same ID in both are not read. */
+    static Set<String> changes(String a, String b) {
+        Set<String> result = new TreeSet<>();
+        changes(a == null ? null : ObjectId.fromHex(a), b == null ? null : ObjectId.fromHex(b),
+            "", result);
+        return result;
+    }
+
+    /** Adds the paths of the files that differ between the trees A and B,
+     *  prefixed with PREFIX, to RESULT. */
+    private static void changes(ObjectId a, ObjectId b, String prefix, Set<String> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        TreeMap<String, ObjectId> before = read(a);
+        TreeMap<String, ObjectId> after = read(b);
+        Set<String> names = new TreeSet<>(before.keySet());
+        names.addAll(after.keySet());
+        for (String name : names) {
+            ObjectId old = before.get(name);
+            ObjectId now = after.get(name);
+            if (old != null && old.equals(now)) {
+                continue;
+            } else if (name.endsWith("/")) {
+                changes(old, now, prefix + name, result);
+            } else {
+                result.add(prefix + name);
+            }
+        }
+    }
+
+    /** Returns the position of the first B in BYTES at or after START. */
+    private static int indexOf(byte[] bytes, byte b, int start) {
+        for (int k = start; k < bytes.length; k += 1) {
+            if (bytes[k] == b) {
+                return k;
+            }
+        }
+        throw new GitletException("Corrupt tree.");
+    }
+}
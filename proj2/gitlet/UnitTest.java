@@ -1,10 +1,20 @@
 package gitlet;
 
 import ucb.junit.textui;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,118 +31,306 @@ public class UnitTest {
         textui.runClasses(UnitTest.class);
     }
 
+    /** Files the tests create in the working directory. */
+    private static final String[] FILES = { "wug.txt", "notwug.txt" };
+
+    /** Starts each test with no repository and none of FILES. */
+    @Before
+    public void setUp() {
+        clean();
+    }
+
+    /** Removes whatever repository and FILES a test left behind. */
+    @After
+    public void tearDown() {
+        clean();
+    }
+
+    /** Deletes the repository in the working directory and FILES, and
+     *  forgets what was cached about the repository. */
+    private static void clean() {
+        delete(new File(".gitlet"));
+        for (String name : FILES) {
+            new File(name).delete();
+        }
+        Daemon.refresh();
+    }
+
+    /** Deletes FILE and, if it is a directory, everything in it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Writes TEXT to the file NAME. */
+    private static void write(String name, String text) {
+        Utils.writeContents(new File(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Asserts that COMMAND fails with a GitletException whose message is
+     *  MESSAGE. */
+    private static void assertFails(String message, Runnable command) {
+        try {
+            command.run();
+            fail("expected \"" + message + "\"");
+        } catch (GitletException excp) {
+            assertEquals(message, excp.getMessage());
+        }
+    }
+
     @Test
     public void testInit() {
         Gitlet.init();
-        File gitlet = new File(".gitlet");
-        File HEAD = new File(".gitlet/HEAD");
-        File COMMITS = new File(".gitlet/COMMITS");
-        File BLOBS = new File(".gitlet/BLOBS");
-        File branches = new File(".gitlet/branches");
-        File stagingArea = new File(".gitlet/staging_area");
-        File marked = new File(".gitlet/marked");
-        File allCommits = new File(".gitlet/allCommits");
-        File allBlobs = new File(".gitlet/allBlobs");
-        assertTrue(gitlet.isDirectory());
-        assertTrue(COMMITS.isDirectory());
-        assertTrue(BLOBS.isDirectory());
-        HashMap comMap = (HashMap) Gitlet.deserialize(".gitlet/allCommits");
-        assertEquals(1, comMap.size());
-        String head = (String) Gitlet.deserialize(".gitlet/HEAD");
-        String currComID = Gitlet.getBranchHeadCommitID(Gitlet.head());
-        Commit com = (Commit) Gitlet.deserialize(".gitlet/COMMITS/" + currComID);
-        assertTrue(com != null);
-        assertTrue(("master").equals(head));
-        return;
+        assertTrue(new File(".gitlet").isDirectory());
+        assertTrue(ObjectStore.OBJECTS.isDirectory());
+        assertEquals("ref: refs/heads/master\n",
+            new String(Utils.readContents(Refs.HEAD), StandardCharsets.UTF_8));
+        File master = new File(Refs.HEADS, "master");
+        assertTrue(master.isFile());
+        String currComID = new String(Utils.readContents(master),
+            StandardCharsets.UTF_8).trim();
+        assertEquals("master", Gitlet.head());
+        assertEquals(currComID, Gitlet.getBranchHeadCommitID("master"));
+
+        Commit com = Gitlet.getCommit(currComID);
+        assertNotNull(com);
+        assertEquals("initial commit", com.getLog());
+        assertTrue(ObjectStore.objectFile(currComID).isFile());
+        assertTrue(ObjectStore.objectFile(com.getTree()).isFile());
+        assertTrue(CommitGraph.GRAPH.isFile());
+        assertEquals(1, CommitGraph.count());
+        assertEquals(currComID, CommitGraph.id(0));
+        assertFalse(new File(".gitlet/allCommits").exists());
     }
 
 
     @Test
     public void testAddRemove() {
-        //adding new file called wug, making sure file exist
         Gitlet.init();
-        Blob wug1 = new Blob("testing/src/wug.txt");
+        write("wug.txt", "This is a wug.\n");
         Gitlet.add("wug.txt");
-        //assertTrue(Gitlet._stagingArea().containsKey(wug1.getFileName()));
-       // System.out.println("Test: This should print 'File does not exist'");
-       // Gitlet.add("testing/src/wug1.txt");
-       // System.out.println("End test");
-        //System.out.println();
-
-        //adding unchanged files, should not be staged
+        assertTrue(Gitlet.stagingArea().containsKey("wug.txt"));
         Gitlet.commit("First add");
+        assertTrue(Gitlet.stagingArea().isEmpty());
+
         Gitlet.remove("wug.txt");
         assertTrue(Gitlet.marked().contains("wug.txt"));
-        //Gitlet.commit("wug 1 commit");
+        assertFalse(new File("wug.txt").exists());
+
+        write("wug.txt", "This is a wug.\n");
         Gitlet.add("wug.txt");
-        assertTrue(!Gitlet.stagingArea().containsKey(wug1.getFileName()));
-
-        //modify wug1, should be staged
-//        File wug = new File("testing/src/wug.txt");
-//        Utils.writeContents(wug, Gitlet.serialize("testing/src/notwug.txt"));
-//        Gitlet.add("testing/src/wug.txt");
-//        assertTrue(Gitlet._stagingArea().containsKey(wug1.getFileName()));
-//        Gitlet.commit("wug 1 changed commit");
-
-        //removing the wug files, checking if added to marked
-
-
-        //adding removed file so it should not be staged or in marked
-        Gitlet.add("testing/src/wug.txt");
-        assertTrue(!Gitlet.stagingArea().containsKey(wug1.getFileName()));
-        assertTrue(!Gitlet.marked().contains(wug1.getFileName()));
-
-        //removing nonexistent file
-        System.out.println("Test: This should print 'No reason to remove the file.'");
-        Gitlet.remove("testing/src/wug2.txt");
-
-        //adding new file, removing, should not be in working directory, commiting, should be in marked
-        Blob notwug = new Blob ("testing/src/notwug.txt");
-        Gitlet.add("testing/src/notwug.txt");
-        Gitlet.remove("testing/src/notwug.txt");
-        assertTrue(!Gitlet.stagingArea().containsKey(notwug.getFileName()));
-        assertTrue(Utils.plainFilenamesIn("testing/src").contains("wug.txt")==false);
-        Gitlet.commit("wug3 commit");
-        assertTrue(Gitlet.marked().contains(notwug.getFileName()));
-   }
-
-//     public void testFind() {
-//         File wug1 = new File(".gitlet");//how do you add to the working directory?!
-//         Gitlet.add(wug1);
-//         Gitlet.commit("hello");
-//         String sha = Gitlet.getCommit(Gitlet.getBranchHead(Gitlet.head())).getSnapshot().get(wug1);
-//         //assertEquals(sha,Gitlet.find("hello"));
-//         //assertEquals("Found no commits with that message.",gitlet.find("goodbye"));
-//     }
+        assertFalse(Gitlet.stagingArea().containsKey("wug.txt"));
+        assertFalse(Gitlet.marked().contains("wug.txt"));
+
+        assertFails("No reason to remove the file.", () -> Gitlet.remove("notwug.txt"));
+
+        write("notwug.txt", "This is not a wug.\n");
+        Gitlet.add("notwug.txt");
+        assertTrue(Gitlet.stagingArea().containsKey("notwug.txt"));
+        Gitlet.remove("notwug.txt");
+        assertFalse(Gitlet.stagingArea().containsKey("notwug.txt"));
+        assertFalse(Gitlet.marked().contains("notwug.txt"));
+        assertTrue(new File("notwug.txt").isFile());
+    }
 
     @Test
     public void testAddRmBranch() {
         Gitlet.init();
 
         Gitlet.branch("newBranch1");
-        Map branches1 = Gitlet.branches();
+        Map<String, String> branches = Gitlet.branches();
         String head = Gitlet.head();
-        assertEquals(2, branches1.size());
-        assertTrue(branches1.containsKey("newBranch1"));
-        assertEquals(branches1.get(head), branches1.get("newBranch1"));
+        assertEquals(2, branches.size());
+        assertTrue(branches.containsKey("newBranch1"));
+        assertEquals(branches.get(head), branches.get("newBranch1"));
         assertNotEquals("newBranch1", head);
 
-        Gitlet.branch("newBranch1");
-        Map branches2 = Gitlet.branches();
-        assertEquals(2, branches2.size());
+        assertFails("A branch with that name already exists.",
+            () -> Gitlet.branch("newBranch1"));
+        assertFails("Cannot remove the current branch.", () -> Gitlet.rmBranch(head));
+        assertFails("A branch with that name does not exist.",
+            () -> Gitlet.rmBranch("notABranch"));
+        assertFails("A branch with that name does not exist.",
+            () -> Gitlet.rmBranch("../../index"));
+        assertEquals(2, Gitlet.branches().size());
+        assertTrue(Dirstate.INDEX.isFile());
 
-        Gitlet.rmBranch(head);
-        Map branches3 = Gitlet.branches();
-        assertEquals(2, branches3.size());
+        Gitlet.rmBranch("newBranch1");
+        branches = Gitlet.branches();
+        assertEquals(1, branches.size());
+        assertFalse(branches.containsKey("newBranch1"));
+    }
 
-        Gitlet.rmBranch("notABranch");
-        Map branches4 = Gitlet.branches();
-        assertEquals(2, branches4.size());
+    @Test
+    public void testDeltaRoundTrip() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i += 1) {
+            text.append("line ").append(i).append("\n");
+        }
+        byte[] base = text.toString().getBytes();
+        byte[] target = text.toString().replace("line 250\n", "changed\n").getBytes();
+        byte[] delta = Delta.create(base, target);
+        assertTrue(delta.length < target.length / 10);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertArrayEquals(base, Delta.apply(target, Delta.create(target, base)));
+        assertArrayEquals(new byte[0], Delta.apply(base, Delta.create(base, new byte[0])));
+    }
 
-        Gitlet.rmBranch("newBranch1");
-        Map branches5 = Gitlet.branches();
-        assertEquals(1, branches5.size());
-        assertTrue(!branches5.containsKey("newBranch1"));
+    @Test
+    public void testTreeSharing() {
+        Gitlet.init();
+        ObjectId x = ObjectId.fromHex(Utils.sha1("x"));
+        ObjectId y = ObjectId.fromHex(Utils.sha1("y"));
+        Map<String, ObjectId> files = new HashMap<>();
+        files.put("top.txt", x);
+        files.put("a/b/deep.txt", x);
+        files.put("c/other.txt", y);
+        String root1 = Tree.update(null, files);
+        assertEquals(files, Tree.flatten(root1));
+
+        Map<String, ObjectId> change = new HashMap<>();
+        change.put("a/b/deep.txt", y);
+        String root2 = Tree.update(root1, change);
+        assertEquals(y, Tree.lookup(root2, "a/b/deep.txt"));
+        assertEquals(Tree.read(root1).get("c/"), Tree.read(root2).get("c/"));
+        assertNotEquals(Tree.read(root1).get("a/"), Tree.read(root2).get("a/"));
+
+        change.put("a/b/deep.txt", null);
+        String root3 = Tree.update(root2, change);
+        assertFalse(Tree.read(root3).containsKey("a/"));
+        assertNull(Tree.lookup(root3, "a/b/deep.txt"));
+    }
+
+    @Test
+    public void testObjectId() {
+        String hex = "a9993e364706816aba3e25717850c26c9cd0d89d";
+        assertEquals(hex, Utils.sha1("abc"));
+        assertEquals(hex, Utils.sha1("a", "bc".getBytes()));
+        ObjectId id = ObjectId.fromHex(hex);
+        assertEquals(hex, id.name());
+        assertEquals(0xa9, id.firstByte());
+        assertEquals(id, ObjectId.fromRaw(id.raw()));
+        assertEquals(id.hashCode(), ObjectId.fromHex(hex).hashCode());
+        assertEquals(hex, IdTable.toHex(IdTable.fromHex(hex)));
+
+        ObjectId low = ObjectId.fromHex("0" + hex.substring(1));
+        ObjectId high = ObjectId.fromHex(hex.substring(0, 39) + "e");
+        assertTrue(low.compareTo(id) < 0 && id.compareTo(high) < 0);
+        assertNotEquals(id, high);
+        for (String bad : new String[] { hex.toUpperCase(), hex.substring(1), hex + "0" }) {
+            try {
+                ObjectId.fromHex(bad);
+                fail("accepted " + bad);
+            } catch (IllegalArgumentException excp) {
+                assertFalse(IdTable.isHex(bad) && bad.length() == Utils.UID_LENGTH);
+            }
+        }
+    }
+
+    @Test
+    public void testToPath() {
+        Path root = Paths.get("").toAbsolutePath();
+        assertEquals("a/b.txt", Dirstate.toPath(Paths.get("a/b.txt")));
+        assertEquals("b.txt", Dirstate.toPath(Paths.get("a/../b.txt")));
+        assertEquals("a/b.txt", Dirstate.toPath(root.resolve("a/b.txt")));
+        assertEquals("", Dirstate.toPath(root));
+        assertFails("File is outside the working directory.",
+            () -> Dirstate.toPath(Paths.get("../b.txt")));
+        assertFails("File is outside the working directory.",
+            () -> Dirstate.toPath(Paths.get("a/../../b.txt")));
+        assertFails("File is outside the working directory.",
+            () -> Dirstate.toPath(root.resolveSibling("b.txt")));
+
+        Gitlet.init();
+        write("wug.txt", "This is a wug.\n");
+        Gitlet.add(root.resolve("wug.txt").toString());
+        assertEquals(Arrays.asList("wug.txt"),
+            new ArrayList<>(Gitlet.stagingArea().keySet()));
+        assertFails("File is outside the working directory.",
+            () -> Gitlet.remove("../wug.txt"));
+    }
+
+    @Test
+    public void testTornGraphRows() throws IOException {
+        Gitlet.init();
+        write("wug.txt", "This is a wug.\n");
+        Gitlet.add("wug.txt");
+        Gitlet.commit("first");
+        byte[] junk = { 1, 2, 3, 4, 5, 6, 7 };
+        for (File file : new File[] { CommitGraph.GRAPH, CommitGraph.MESSAGES,
+                                      CommitGraph.ORDER }) {
+            Files.write(file.toPath(), junk, StandardOpenOption.APPEND);
+        }
+        Daemon.refresh();
+        assertEquals(2, CommitGraph.count());
+
+        write("wug.txt", "This is not a wug.\n");
+        Gitlet.add("wug.txt");
+        Gitlet.commit("second");
+        assertEquals(3, CommitGraph.count());
+        assertEquals(Gitlet.getBranchHeadCommitID(Gitlet.head()), CommitGraph.id(2));
+        assertEquals(1, CommitGraph.parent(2));
+        assertEquals("first", CommitGraph.message(1));
+        assertEquals("second", CommitGraph.message(2));
+        assertEquals(12, CommitGraph.ORDER.length());
+        assertEquals(2, CommitGraph.byTime(2));
+    }
+
+    @Test
+    public void testCommitEncoding() {
+        String id = Utils.sha1("commit");
+        Commit c = new Commit(id, Utils.sha1("parent"), Utils.sha1("merged"), Utils.sha1("tree"),
+            "2017-07-12 10:00:00", "A message \u00e9");
+        Commit d = Commit.decode(id, c.encode());
+        assertEquals(c.getID(), d.getID());
+        assertEquals(c.getParentID(), d.getParentID());
+        assertEquals(c.getSecondParentID(), d.getSecondParentID());
+        assertEquals(c.getTree(), d.getTree());
+        assertEquals(c.getTime(), d.getTime());
+        assertEquals(c.getLog(), d.getLog());
+
+        Commit root = Commit.decode(id, new Commit(id, "0", null, Utils.sha1("tree"),
+            "2017-07-12 10:00:00", "initial commit").encode());
+        assertEquals("0", root.getParentID());
+        assertNull(root.getSecondParentID());
+        assertEquals(id, ((Commit) Gitlet.deserialize(Gitlet.serialize(c))).getID());
+        assertEquals(id, Commit.decode(id, Gitlet.serialize(c)).getID());
+
+        byte[] corrupt = c.encode();
+        corrupt[corrupt.length - 10] ^= 1;
+        try {
+            Commit.decode(id, corrupt);
+            fail("corrupt commit decoded");
+        } catch (GitletException excp) {
+            assertEquals("Corrupt commit " + id + ".", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testRequiredLiterals() {
+        assertEquals(Arrays.asList("fix ", " in parser"),
+            MessageIndex.requiredLiterals("fix \\w+ in parser"));
+        assertEquals(Arrays.asList("colo", "r"), MessageIndex.requiredLiterals("colou?r"));
+        assertEquals(Arrays.asList("v", "."), MessageIndex.requiredLiterals("v[0-9]+\\.[0-9]"));
+        assertEquals(Arrays.asList("a", "c"), MessageIndex.requiredLiterals("a(b|x)c"));
+        assertEquals(Arrays.asList("y"), MessageIndex.requiredLiterals("x{2}y"));
+        assertEquals(Arrays.asList("a.b"), MessageIndex.requiredLiterals("\\Qa.b\\E"));
+        assertTrue(MessageIndex.requiredLiterals("ab|cd").isEmpty());
+        assertTrue(MessageIndex.requiredLiterals("(?i)fix").isEmpty());
+        assertEquals(Arrays.asList("bc"), MessageIndex.requiredLiterals("\\x41bc"));
+        assertEquals(Arrays.asList("bc"), MessageIndex.requiredLiterals("\\x{41}bc"));
+        assertEquals(Arrays.asList("bc"), MessageIndex.requiredLiterals("\\u0041bc"));
+        assertEquals(Arrays.asList("bc"), MessageIndex.requiredLiterals("\\0101bc"));
+        assertEquals(Arrays.asList("bc"), MessageIndex.requiredLiterals("\\cAbc"));
+        assertEquals(Arrays.asList("x"), MessageIndex.requiredLiterals("\\k<n>x"));
+        assertEquals(Arrays.asList("ab"), MessageIndex.requiredLiterals("\\p{L}ab"));
+        assertEquals(Arrays.asList("a", "b"), MessageIndex.requiredLiterals("a\\pLb"));
+        assertEquals(Arrays.asList("y"), MessageIndex.requiredLiterals("(x)\\12y"));
     }
 
 }
@@ -1,15 +1,17 @@
 package gitlet;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -20,28 +22,49 @@ class Utils {
 
     /* SHA-1 HASH VALUES. */
 
+    /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
+    static final int UID_LENGTH = 40;
+
+    /** A SHA-1 digester for each thread, reused from one hash to the next,
+     *  since creating one looks up the algorithm's provider each time. */
+    private static final ThreadLocal<MessageDigest> DIGESTERS =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support SHA-1");
+            }
+        });
+
+    /** Returns this thread's SHA-1 digester, reset. The caller must finish
+     *  with it before hashing anything else. */
+    static MessageDigest sha1Digester() {
+        MessageDigest md = DIGESTERS.get();
+        md.reset();
+        return md;
+    }
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
+        return Trace.time("sha1", () -> {
+            MessageDigest md = sha1Digester();
+            long length = 0;
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    length += ((byte[]) val).length;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(bytes);
+                    length += bytes.length;
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
-        }
+            Trace.hashed(length);
+            return IdTable.toHex(md.digest());
+        });
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -50,6 +73,34 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, which is read in
+     *  fixed-size chunks so that it need not fit in memory. */
+    static String sha1(File file) {
+        return sha1Id(file).name();
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE as an ObjectId. */
+    static ObjectId sha1Id(File file) {
+        try {
+            return Trace.time("sha1", () -> {
+                try (InputStream in = new FileInputStream(file)) {
+                    MessageDigest md = sha1Digester();
+                    byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+                    long length = 0;
+                    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                        md.update(buffer, 0, n);
+                        length += n;
+                    }
+                    Trace.fileRead(length);
+                    Trace.hashed(length);
+                    return ObjectId.fromRaw(md.digest());
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -85,7 +136,11 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            return Trace.time("read-file", () -> {
+                byte[] result = Files.readAllBytes(file.toPath());
+                Trace.fileRead(result.length);
+                return result;
+            });
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -94,12 +149,15 @@ class Utils {
     /** Write the entire contents of BYTES to FILE, creating or overwriting
      *  it as needed.  Throws IllegalArgumentException in case of problems. */
     static void writeContents(File file, byte[] bytes) {
+        if (file.isDirectory()) {
+            throw
+                new IllegalArgumentException("cannot overwrite directory");
+        }
         try {
-            if (file.isDirectory()) {
-                throw
-                    new IllegalArgumentException("cannot overwrite directory");
-            }
-            Files.write(file.toPath(), bytes);
+            Trace.time("write-file", () -> {
+                Files.write(file.toPath(), bytes);
+                Trace.fileWritten(bytes.length);
+            });
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -136,6 +194,7 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        Trace.count(Trace.Counter.DIRECTORY_LISTINGS);
         String[] files = dir.list(PLAIN_FILES);
         if (files == null) {
             return null;
@@ -152,4 +211,22 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+
+    /** Returns a string that changes whenever any of FILES is created,
+     *  deleted, replaced, resized or modified. */
+    static String stamp(File... files) {
+        StringBuilder result = new StringBuilder();
+        for (File file : files) {
+            try {
+                BasicFileAttributes attrs =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                result.append(attrs.fileKey()).append(' ').append(attrs.size()).append(' ')
+                    .append(attrs.lastModifiedTime().toInstant()).append(';');
+            } catch (IOException excp) {
+                result.append("-;");
+            }
+        }
+        return result.toString();
+    }
+
 }
@@ -0,0 +1,159 @@
+import sys, random
+from subprocess import check_output, DEVNULL, STDOUT
+from os.path import exists, isdir
+from os import chdir, listdir, makedirs
+from getopt import getopt, GetoptError
+
+SHORT_USAGE = """\
+Usage: python3 generator.py OPTIONS DIR
+
+   OPTIONS may include
+       --files=N         Number of files in the first commit (default 100).
+       --size=BYTES      Approximate size of each file (default 4096).
+       --edit-rate=F     Fraction of a branch's files each commit edits
+                         (default 0.05).
+       --commits=N       Number of commits to make (default 500).
+       --branches=N      Number of branches besides master (default 2).
+       --merge-every=N   Merge a branch into master every N commits
+                         (default 25; 0 for never).
+       --seed=N          Seed of the random choices (default 61).
+"""
+
+USAGE = SHORT_USAGE + """\
+
+Creates DIR, which must not exist or be empty, and builds a Gitlet
+repository in it by running the public commands, as a user would.  The
+first commit adds --files files of random lines under eight directories,
+and branch1, branch2, ... are then created from it.  Each later commit
+goes to master or to a branch in turn, and rewrites a few lines in each of
+--edit-rate of the files owned by that branch, after which every
+--merge-every commits one of the branches is merged into master.  Each
+branch, master included, edits only its own share of the files, so merges
+never conflict.
+
+The same options always produce the same contents, branches and merges,
+though not the same commit ids, which depend on the time.  The gitlet
+classes must be on the CLASSPATH."""
+
+GITLET_COMMAND = ["java", "gitlet.Main"]
+
+SETTINGS = { "files": 100, "size": 4096, "edit-rate": 0.05, "commits": 500,
+             "branches": 2, "merge-every": 25, "seed": 61 }
+
+LINE_LENGTH = 63
+
+class Generator:
+    """Builds a repository with the given SETTINGS (see SETTINGS for the
+    keys and defaults) in the current directory, using RUN(ARGS) to run
+    the gitlet command ARGS there and return its output."""
+
+    def __init__(self, run, settings):
+        self.run = run
+        self.settings = dict(SETTINGS)
+        self.settings.update(settings)
+        self.random = random.Random(self.settings["seed"])
+        self.files = [ "dir{}/file{}.txt".format(k % 8, k)
+                       for k in range(self.settings["files"]) ]
+        self.branches = ["master"] + [ "branch{}".format(b + 1)
+                                       for b in range(self.settings["branches"]) ]
+        self.current = "master"
+
+    def generate(self):
+        """Builds the repository, yielding the number of commits made so far
+        after each one."""
+        lines = max(1, self.settings["size"] // (LINE_LENGTH + 1))
+        self.run(["init"])
+        for name in self.files:
+            self.write(name, [ self.line() for i in range(lines) ])
+        for k in range(0, len(self.files), 100):
+            self.run(["add"] + self.files[k:k + 100])
+        self.run(["commit", "Add {} files".format(len(self.files))])
+        for branch in self.branches[1:]:
+            self.run(["branch", branch])
+        made = 1
+        yield made
+        merge_every = self.settings["merge-every"]
+        next_merge = 0
+        while made < self.settings["commits"]:
+            branch = self.branches[made % len(self.branches)]
+            self.checkout(branch)
+            self.edit(branch, made)
+            made += 1
+            yield made
+            if merge_every > 0 and made % merge_every == 0 \
+               and len(self.branches) > 1 and made < self.settings["commits"]:
+                other = self.branches[1 + next_merge % (len(self.branches) - 1)]
+                next_merge += 1
+                self.checkout("master")
+                if "ancestor" not in self.run(["merge", other]):
+                    made += 1
+                    yield made
+
+    def checkout(self, branch):
+        """Checks out BRANCH unless it is current."""
+        if branch != self.current:
+            self.run(["checkout", branch])
+            self.current = branch
+
+    def edit(self, branch, n):
+        """Edits some of the files owned by BRANCH and commits them as
+        commit N."""
+        index = self.branches.index(branch)
+        owned = self.files[index::len(self.branches)] or self.files
+        count = max(1, round(len(owned) * self.settings["edit-rate"]))
+        chosen = sorted(self.random.sample(owned, min(count, len(owned))))
+        for name in chosen:
+            with open(name) as inp:
+                text = inp.read().split("\n")[:-1]
+            start = self.random.randrange(len(text))
+            for k in range(start, min(len(text), start + 3)):
+                text[k] = self.line()
+            self.write(name, text)
+        self.run(["add"] + chosen)
+        self.run(["commit", "commit {} on {}".format(n, branch)])
+
+    def line(self):
+        """Returns a random line of LINE_LENGTH letters."""
+        return "".join(self.random.choice("abcdefghijklmnopqrstuvwxyz ")
+                       for i in range(LINE_LENGTH))
+
+    def write(self, name, text):
+        """Writes the lines TEXT to the file NAME."""
+        if "/" in name:
+            makedirs(name[:name.rindex("/")], exist_ok=True)
+        with open(name, "w") as out:
+            out.write("".join(line + "\n" for line in text))
+
+def parseSettings(opts):
+    """Returns the settings given by the getopt options OPTS."""
+    settings = {}
+    for opt, val in opts:
+        key = opt[2:]
+        if key in SETTINGS:
+            settings[key] = type(SETTINGS[key])(val)
+    return settings
+
+def runGitlet(args):
+    """Runs the gitlet command ARGS in the current directory and returns
+    its output."""
+    return check_output(GITLET_COMMAND + args, universal_newlines=True,
+                        stdin=DEVNULL, stderr=STDOUT)
+
+if __name__ == "__main__":
+    try:
+        opts, args = getopt(sys.argv[1:], '',
+                            [ key + "=" for key in SETTINGS ])
+    except GetoptError:
+        print(SHORT_USAGE, file=sys.stderr)
+        sys.exit(1)
+    if len(args) != 1:
+        print(USAGE)
+        sys.exit(0)
+    if exists(args[0]) and (not isdir(args[0]) or listdir(args[0])):
+        print("{} is not an empty directory.".format(args[0]), file=sys.stderr)
+        sys.exit(1)
+    makedirs(args[0], exist_ok=True)
+    chdir(args[0])
+    for made in Generator(runGitlet, parseSettings(opts)).generate():
+        if made % 100 == 0:
+            print("{} commits".format(made), file=sys.stderr)
@@ -1,9 +1,12 @@
 import sys, re
 from subprocess import \
-     check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
+     check_output, Popen, PIPE, STDOUT, DEVNULL, CalledProcessError, \
+     TimeoutExpired
 from os.path import abspath, basename, dirname, exists, join, splitext, isdir
 from getopt import getopt, GetoptError
-from os import chdir, environ, getcwd, mkdir, remove
+from os import chdir, environ, getcwd, makedirs, mkdir, remove
+from shlex import quote
+from time import perf_counter
 from shutil import copyfile, rmtree
 from math import log
 from glob import glob
@@ -23,6 +26,14 @@ Usage: python3 tester.py OPTIONS TEST.in ...
        --tolerance=N  Set the maximum allowed edit distance between program
                       output and expected output to N (default 3).
        --verbose      Print extra information about execution.
+       --scale=SETTINGS
+                      Instead of running tests, build a large repository
+                      with generator.py and measure each command; see below.
+       --probe-every=N
+                      With --scale, group measurements by each N commits
+                      (default 100).
+       --output=FILE  With --scale, write the measurements to FILE rather
+                      than the standard output.
 """
 
 USAGE = SHORT_USAGE + """\
@@ -81,7 +92,20 @@ tests.  With --keep, keeps the directories created for the tests (with names
 TEST.dir).
 
 When finished, reports number of tests passed and failed, and the number of
-faulty TEST.in files."""
+faulty TEST.in files.
+
+With --scale, no TEST.in files are needed.  SETTINGS is a comma-separated
+list of KEY=VALUE, where each KEY is one of the options of generator.py
+without its dashes (as in --scale=commits=2000,files=500,seed=3).  The
+repository that generator.py would build is built in an empty directory,
+and each gitlet command run to build it is measured, as are status, log,
+global-log and find, which are run after every N commits.  Each line of
+the report gives, for the commands of one name run while the repository
+grew to a multiple of N commits, the number of runs, their median wall
+time in milliseconds, the largest peak resident set size in kilobytes, and
+the median numbers of bytes read and written through system calls.  Lines
+are sorted, so the reports of two versions of gitlet may be compared with
+diff."""
 
 DIRECTORY_LAYOUT_ERROR = """\
 Your {} folder is not where we expected it. Please ensure that your directory
@@ -152,6 +176,7 @@ def doDelete(name, dir):
 def doCopy(dest, src, dir):
     try:
         doDelete(dest, dir)
+        makedirs(dirname(join(dir, dest)), exist_ok=True)
         copyfile(join(src_dir, src), join(dir, dest))
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
@@ -184,6 +209,95 @@ def doExecute(cmnd, dir, timeout):
     finally:
         chdir(here)
 
+def doMeasure(args, dir):
+    """Runs gitlet with the list of operands ARGS in DIR, and returns its
+    output, wall time in milliseconds, peak resident set size in kilobytes,
+    and the bytes it read and wrote, or raises ValueError if it fails."""
+    # Imported here so that ordinary test runs work where these are missing.
+    from os import waitid, wait4, waitstatus_to_exitcode, \
+         P_PID, WEXITED, WNOWAIT
+    here = getcwd()
+    try:
+        chdir(dir)
+        full_cmnd = "{} {}".format(GITLET_COMMAND,
+                                   " ".join(map(quote, args)))
+        start = perf_counter()
+        proc = Popen(full_cmnd, shell=True, universal_newlines=True,
+                     stdin=DEVNULL, stdout=PIPE, stderr=STDOUT)
+        out = proc.stdout.read()
+        proc.stdout.close()
+        waitid(P_PID, proc.pid, WEXITED | WNOWAIT)
+        wall = (perf_counter() - start) * 1000
+        io = {}
+        try:
+            with open("/proc/{}/io".format(proc.pid)) as inp:
+                for L in inp:
+                    key, val = L.split(":")
+                    io[key] = int(val)
+        except OSError:
+            pass
+        pid, status, usage = wait4(proc.pid, 0)
+        proc.returncode = waitstatus_to_exitcode(status)
+        if proc.returncode != 0:
+            raise ValueError("java gitlet.Main {} exited with code {}"
+                             .format(" ".join(args), proc.returncode))
+        return (out, wall, usage.ru_maxrss,
+                io.get("rchar", usage.ru_inblock * 512),
+                io.get("wchar", usage.ru_oublock * 512))
+    finally:
+        chdir(here)
+
+def doScale(settings, probe_every, output):
+    """Builds a repository with the generator SETTINGS in a new directory,
+    measuring each command and probing the read-only commands every
+    PROBE_EVERY commits, and writes a report of the measurements to
+    OUTPUT."""
+    from generator import Generator
+    tmpdir = createTempDir("scale")
+    samples = {}
+    made = 0
+
+    def run(args):
+        out, wall, rss, read, written = doMeasure(args, ".")
+        bucket = -(-max(made, 1) // probe_every) * probe_every
+        samples.setdefault((bucket, args[0]), []) \
+               .append((wall, rss, read, written))
+        if verbose:
+            print("{} {}: {:.0f} ms".format(made, " ".join(args[:2]), wall),
+                  file=sys.stderr)
+        return out
+
+    here = getcwd()
+    try:
+        chdir(tmpdir)
+        generator = Generator(run, settings)
+        for made in generator.generate():
+            if made % probe_every == 0 \
+               or made == generator.settings["commits"]:
+                for probe in [ ["status"], ["log"], ["global-log"],
+                               ["find", "Add {} files"
+                                        .format(generator.settings["files"])] ]:
+                    run(probe)
+    finally:
+        chdir(here)
+        if not keep:
+            cleanTempDir(tmpdir)
+
+    def median(values):
+        values = sorted(values)
+        return values[len(values) // 2]
+
+    print("# scale {}".format(",".join("{}={}".format(key, val) for key, val
+                                        in sorted(generator.settings.items()))),
+          file=output)
+    print("# commits\tcommand\truns\twall_ms\tpeak_rss_kb\tread_bytes"
+          "\twritten_bytes", file=output)
+    for (bucket, command), runs in sorted(samples.items()):
+        print("{}\t{}\t{}\t{:.1f}\t{}\t{}\t{}".format(
+            bucket, command, len(runs), median(r[0] for r in runs),
+            max(r[1] for r in runs), median(r[2] for r in runs),
+            median(r[3] for r in runs)), file=output)
+
 def canonicalize(s):
     if s is None:
         return None
@@ -381,12 +495,15 @@ if __name__ == "__main__":
     src_dir = 'src'
     gitlet_dir = join(dirname(abspath(getcwd())), "gitlet")
     output_tolerance = 3
+    scale = None
+    probe_every = 100
+    report = sys.stdout
 
     try:
         opts, files = \
             getopt(sys.argv[1:], '',
                    ['show=', 'keep', 'lib=', 'verbose', 'src=',
-                    'tolerance='])
+                    'tolerance=', 'scale=', 'probe-every=', 'output='])
         for opt, val in opts:
             if opt == '--show':
                 show = int(val)
@@ -400,13 +517,25 @@ if __name__ == "__main__":
                 verbose = True
             elif opt == "--tolerance":
                 output_tolerance = int(val)
+            elif opt == "--scale":
+                from generator import SETTINGS
+                scale = {}
+                for setting in filter(None, val.split(",")):
+                    key, _, value = setting.partition("=")
+                    if key not in SETTINGS:
+                        raise GetoptError("unknown setting " + key)
+                    scale[key] = type(SETTINGS[key])(value)
+            elif opt == "--probe-every":
+                probe_every = int(val)
+            elif opt == "--output":
+                report = open(val, "w")
         if lib_dir is None:
             lib_dir = join(dirname(dirname(abspath(getcwd()))), "lib")
         else:
             lib_dir = join(abspath(getcwd()), abspath(lib_dir))
     except GetoptError:
         Usage()
-    if not files:
+    if not files and scale is None:
         print(USAGE)
         sys.exit(0)
 
@@ -439,6 +568,14 @@ if __name__ == "__main__":
         print("Your program failed to compile. Ran 0 tests.")
         sys.exit(1)
 
+    if scale is not None:
+        try:
+            doScale(scale, probe_every, report)
+        except ValueError as excp:
+            print("FAILED ({})".format(excp.args[0]))
+            sys.exit(1)
+        sys.exit(0)
+
     matching_files = []
     for path in files:
         matching_files += glob(path)